@@ -4,7 +4,9 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,11 +24,74 @@ public class Config {
     private String dbPassword;
     private boolean dbUseSSL;
 
+    // コネクションプール設定
+    private int poolMinIdle;
+    private int poolMaxSize;
+    private long poolConnectionTimeout;
+    private long poolIdleTimeout;
+    private long poolMaxLifetime;
+    private long poolLeakDetectionThreshold;
+    private int poolValidationTimeout;
+
+    // クエリのタイムアウトと、接続の監視設定
+    private int queryTimeout;
+    private long healthCheckInterval;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenDuration;
+
+    // 保存データの圧縮設定
+    private String inventoryCompression;
+    private String enderChestCompression;
+    private boolean compressionUseDictionary;
+    private int compressionMinSize;
+
+    // インベントリの差分保存設定
+    private boolean inventoryDeltaMode;
+    private int deltaCompactAfter;
+
+    // デコード済みデータのキャッシュ設定
+    private long snapshotCacheMaxBytes;
+
+    // 参加時の読み込みをまとめる設定
+    private long loadBatchWindow;
+    private int loadBatchMaxSize;
+    private boolean loadNewest;
+
+    // ジャーナル設定
+    private boolean journalEnabled;
+    private long journalSegmentBytes;
+    private boolean journalFsync;
+
+    // ストレージのスレッドプール設定
+    private int executorThreads;
+    private int executorQueueSize;
+    private long executorSubmitTimeout;
+    private boolean executorVirtualThreads;
+
+    // 書き込みキュー設定
+    private long writeBehindFlushInterval;
+    private int writeBehindBatchSize;
+    private int writeBehindEncodeThreads;
+
+    // 自動保存設定
+    private boolean autoSaveDirtyTracking;
+    private int autoSaveFullScanEvery;
+    private int autoSaveInterval;
+    private int autoSaveSlice;
+    private int autoSaveJitter;
+    private double autoSaveCaptureBudget;
+
+    // 停止時の一括保存設定
+    private long shutdownFlushTimeout;
+    private int shutdownBatchSize;
+
     // 現在のサーバーID
     private String serverId;
 
     // 共有グループ設定
-    private final Map<String, List<String>> sharingGroups = new HashMap<>();
+    private final Map<String, List<String>> sharingGroups = new LinkedHashMap<>();
+    // サーバーIDから所属グループへの索引（設定の読み込み時に作成し、保存/読み込みのたびに走査しない）
+    private volatile Map<String, List<String>> serverGroupIndex = Collections.emptyMap();
 
     // 各サーバーの設定
     private final Map<String, ServerConfig> serverConfigs = new HashMap<>();
@@ -52,6 +117,30 @@ public class Config {
         dbPassword = config.getString("database.password", "");
         dbUseSSL = config.getBoolean("database.useSSL", false);
 
+        // コネクションプール設定をロード
+        poolMinIdle = config.getInt("database.pool.minimum-idle", 2);
+        poolMaxSize = config.getInt("database.pool.maximum-size", 10);
+        poolConnectionTimeout = config.getLong("database.pool.connection-timeout", 10000L);
+        poolIdleTimeout = config.getLong("database.pool.idle-timeout", 600000L);
+        poolMaxLifetime = config.getLong("database.pool.max-lifetime", 1800000L);
+        poolLeakDetectionThreshold = config.getLong("database.pool.leak-detection-threshold", 30000L);
+        poolValidationTimeout = config.getInt("database.pool.validation-timeout", 5);
+
+        // クエリのタイムアウト (秒) と、接続の監視設定をロード
+        queryTimeout = Math.max(0, config.getInt("database.query-timeout", 10));
+        healthCheckInterval = Math.max(1000L, config.getLong("database.health-check-interval", 5000L));
+        circuitBreakerFailureThreshold = Math.max(1, config.getInt("database.circuit-breaker.failure-threshold", 3));
+        circuitBreakerOpenDuration = Math.max(0L, config.getLong("database.circuit-breaker.open-duration", 10000L));
+
+        if (poolMaxSize < 1) {
+            plugin.getLogger().warning("無効なプール最大サイズが指定されました: " + poolMaxSize + ". 1 を使用します。");
+            poolMaxSize = 1;
+        }
+        if (poolMinIdle > poolMaxSize) {
+            plugin.getLogger().warning("プール最小サイズ " + poolMinIdle + " が最大サイズを超えています。" + poolMaxSize + " を使用します。");
+            poolMinIdle = poolMaxSize;
+        }
+
         // データベースタイプの妥当性チェック
         if (!dbType.equals("mysql") && !dbType.equals("mariadb")) {
             plugin.getLogger().warning("無効なデータベースタイプが指定されました: " + dbType +
@@ -59,6 +148,68 @@ public class Config {
             dbType = "mysql";
         }
 
+        // 圧縮設定をロード
+        inventoryCompression = config.getString("storage.compression.inventory", "deflate");
+        enderChestCompression = config.getString("storage.compression.enderchest", "deflate");
+        compressionUseDictionary = config.getBoolean("storage.compression.use-dictionary", true);
+        compressionMinSize = config.getInt("storage.compression.min-size", 128);
+
+        // インベントリの保存方式をロード
+        String inventoryMode = config.getString("storage.inventory-mode", "full").toLowerCase();
+        if (!inventoryMode.equals("full") && !inventoryMode.equals("delta")) {
+            plugin.getLogger().warning("無効なインベントリ保存方式が指定されました: " + inventoryMode + ". full を使用します。");
+            inventoryMode = "full";
+        }
+        inventoryDeltaMode = inventoryMode.equals("delta");
+        deltaCompactAfter = Math.max(1, config.getInt("storage.delta.compact-after", 20));
+
+        // キャッシュ設定をロード (MB 単位)
+        snapshotCacheMaxBytes = Math.max(0L, config.getLong("storage.snapshot-cache.max-size-mb", 32L)) * 1024L * 1024L;
+
+        // 参加時の読み込みをまとめる設定をロード
+        loadBatchWindow = Math.max(0L, config.getLong("storage.load-batch.window", 10L));
+        loadBatchMaxSize = Math.max(1, config.getInt("storage.load-batch.max-size", 100));
+
+        // 複数の共有グループに属する場合の読み込み元
+        String loadPolicy = config.getString("storage.load-policy", "newest").toLowerCase();
+        if (!loadPolicy.equals("newest") && !loadPolicy.equals("primary")) {
+            plugin.getLogger().warning("無効な読み込み方式が指定されました: " + loadPolicy + ". newest を使用します。");
+            loadPolicy = "newest";
+        }
+        loadNewest = loadPolicy.equals("newest");
+
+        // ジャーナル設定をロード (セグメントサイズは MB 単位)
+        journalEnabled = config.getBoolean("storage.journal.enabled", true);
+        journalSegmentBytes = Math.max(1L, config.getLong("storage.journal.segment-size-mb", 8L)) * 1024L * 1024L;
+        journalFsync = config.getBoolean("storage.journal.fsync", true);
+
+        // ストレージのスレッドプール設定をロード (0 の場合はコネクションプールの最大接続数)
+        executorThreads = config.getInt("storage.executor.threads", 0);
+        if (executorThreads <= 0) {
+            executorThreads = poolMaxSize;
+        }
+        executorQueueSize = Math.max(1, config.getInt("storage.executor.queue-size", 1000));
+        executorSubmitTimeout = Math.max(0L, config.getLong("storage.executor.submit-timeout", 1000L));
+        executorVirtualThreads = config.getBoolean("storage.executor.virtual-threads", false);
+
+        // 書き込みキュー設定をロード
+        writeBehindFlushInterval = config.getLong("storage.write-behind.flush-interval", 1000L);
+        writeBehindBatchSize = config.getInt("storage.write-behind.batch-size", 50);
+        writeBehindEncodeThreads = Math.max(0, config.getInt("storage.write-behind.encode-threads", 0));
+
+        // 自動保存設定をロード
+        autoSaveDirtyTracking = config.getBoolean("autosave.dirty-tracking", true);
+        autoSaveFullScanEvery = config.getInt("autosave.full-scan-every", 6);
+        // 間隔は秒単位
+        autoSaveInterval = Math.max(1, config.getInt("autosave.interval", 300));
+        autoSaveSlice = Math.max(1, Math.min(autoSaveInterval, config.getInt("autosave.slice", 1)));
+        autoSaveJitter = Math.max(0, config.getInt("autosave.jitter", 30));
+        autoSaveCaptureBudget = config.getDouble("autosave.capture-budget", 2.0);
+
+        // 停止時の一括保存設定をロード
+        shutdownFlushTimeout = Math.max(0L, config.getLong("shutdown.flush-timeout", 10000L));
+        shutdownBatchSize = Math.max(1, config.getInt("shutdown.batch-size", 100));
+
         // 現在のサーバーID
         serverId = config.getString("server-id", "server1");
 
@@ -71,6 +222,7 @@ public class Config {
                 sharingGroups.put(groupName, servers);
             }
         }
+        serverGroupIndex = buildServerGroupIndex(sharingGroups);
 
         // 各サーバー設定をロード
         serverConfigs.clear();
@@ -122,22 +274,192 @@ public class Config {
         return dbUseSSL;
     }
 
+    public int getPoolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public long getPoolConnectionTimeout() {
+        return poolConnectionTimeout;
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public long getPoolMaxLifetime() {
+        return poolMaxLifetime;
+    }
+
+    public long getPoolLeakDetectionThreshold() {
+        return poolLeakDetectionThreshold;
+    }
+
+    public int getPoolValidationTimeout() {
+        return poolValidationTimeout;
+    }
+
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public String getInventoryCompression() {
+        return inventoryCompression;
+    }
+
+    public String getEnderChestCompression() {
+        return enderChestCompression;
+    }
+
+    public boolean isCompressionUseDictionary() {
+        return compressionUseDictionary;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public boolean isInventoryDeltaMode() {
+        return inventoryDeltaMode;
+    }
+
+    public int getDeltaCompactAfter() {
+        return deltaCompactAfter;
+    }
+
+    public long getSnapshotCacheMaxBytes() {
+        return snapshotCacheMaxBytes;
+    }
+
+    // 読み込みをまとめる待ち時間 (ミリ秒, 0でまとめない)
+    public long getLoadBatchWindow() {
+        return loadBatchWindow;
+    }
+
+    public int getLoadBatchMaxSize() {
+        return loadBatchMaxSize;
+    }
+
+    // true: 全グループから最も新しく保存された行を読み込む / false: 先頭のグループだけから読み込む
+    public boolean isLoadNewest() {
+        return loadNewest;
+    }
+
+    public boolean isJournalEnabled() {
+        return journalEnabled;
+    }
+
+    public long getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public boolean isJournalFsync() {
+        return journalFsync;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public int getExecutorQueueSize() {
+        return executorQueueSize;
+    }
+
+    public long getExecutorSubmitTimeout() {
+        return executorSubmitTimeout;
+    }
+
+    public boolean isExecutorVirtualThreads() {
+        return executorVirtualThreads;
+    }
+
+    public long getWriteBehindFlushInterval() {
+        return writeBehindFlushInterval;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    // 0 の場合は CPU のコア数
+    public int getWriteBehindEncodeThreads() {
+        return writeBehindEncodeThreads;
+    }
+
+    public boolean isAutoSaveDirtyTracking() {
+        return autoSaveDirtyTracking;
+    }
+
+    public int getAutoSaveFullScanEvery() {
+        return autoSaveFullScanEvery;
+    }
+
+    public int getAutoSaveInterval() {
+        return autoSaveInterval;
+    }
+
+    public int getAutoSaveSlice() {
+        return autoSaveSlice;
+    }
+
+    public int getAutoSaveJitter() {
+        return autoSaveJitter;
+    }
+
+    public double getAutoSaveCaptureBudget() {
+        return autoSaveCaptureBudget;
+    }
+
+    // 停止時の一括保存の最大待ち時間 (ミリ秒)
+    public long getShutdownFlushTimeout() {
+        return shutdownFlushTimeout;
+    }
+
+    // 1トランザクションで保存する人数
+    public int getShutdownBatchSize() {
+        return shutdownBatchSize;
+    }
+
     // 現在のサーバーID取得
     public String getServerId() {
         return serverId;
     }
 
-    // サーバーが属するグループ取得
+    // サーバーが属するグループ取得（変更不可のリスト）
     public List<String> getServerGroups(String serverId) {
-        List<String> groups = new ArrayList<>();
+        return serverGroupIndex.getOrDefault(serverId, Collections.emptyList());
+    }
 
+    // グループの並び順は設定ファイルに書かれた順（先頭のグループが優先される）
+    private static Map<String, List<String>> buildServerGroupIndex(Map<String, List<String>> sharingGroups) {
+        Map<String, List<String>> index = new HashMap<>();
         for (Map.Entry<String, List<String>> entry : sharingGroups.entrySet()) {
-            if (entry.getValue().contains(serverId)) {
-                groups.add(entry.getKey());
+            for (String server : entry.getValue()) {
+                List<String> groups = index.computeIfAbsent(server, key -> new ArrayList<>());
+                if (!groups.contains(entry.getKey())) {
+                    groups.add(entry.getKey());
+                }
             }
         }
-
-        return groups;
+        for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(index);
     }
 
     // 共有サーバーリスト取得
@@ -209,10 +531,11 @@ public class Config {
                         "  Database Name: %s\n" +
                         "  Database User: %s\n" +
                         "  Database SSL: %s\n" +
+                        "  Connection Pool: %d-%d\n" +
                         "  Server ID: %s\n" +
                         "  Sharing Groups: %d\n" +
                         "  Server Configs: %d",
-                dbType, dbHost, dbPort, dbName, dbUser, dbUseSSL, serverId,
+                dbType, dbHost, dbPort, dbName, dbUser, dbUseSSL, poolMinIdle, poolMaxSize, serverId,
                 sharingGroups.size(), serverConfigs.size()
         );
     }
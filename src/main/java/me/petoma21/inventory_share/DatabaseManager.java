@@ -1,28 +1,82 @@
 package me.petoma21.inventory_share;
 
+import me.petoma21.inventory_share.database.BinaryKeyMigration;
+import me.petoma21.inventory_share.database.FreshnessIndexMigration;
+import me.petoma21.inventory_share.database.CircuitBreaker;
+import me.petoma21.inventory_share.database.ConnectionPool;
+import me.petoma21.inventory_share.database.GroupRegistry;
+import me.petoma21.inventory_share.database.HealthMonitor;
+import me.petoma21.inventory_share.database.InitialSchemaMigration;
+import me.petoma21.inventory_share.database.LoadBatcher;
+import me.petoma21.inventory_share.database.SchemaMigrator;
+import me.petoma21.inventory_share.database.SessionTableMigration;
+import me.petoma21.inventory_share.database.UuidBytes;
+import me.petoma21.inventory_share.serialization.CompressionDictionaries;
+import me.petoma21.inventory_share.serialization.CompressionSettings;
+import me.petoma21.inventory_share.serialization.DictionaryTrainer;
+import me.petoma21.inventory_share.serialization.ItemStackCodec;
+import me.petoma21.inventory_share.serialization.PayloadCodec;
+import me.petoma21.inventory_share.serialization.SlotDeltaCodec;
+import me.petoma21.inventory_share.storage.DirtyTracker;
+import me.petoma21.inventory_share.storage.EncodeStage;
+import me.petoma21.inventory_share.storage.PlayerState;
+import me.petoma21.inventory_share.storage.SessionLease;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.util.io.BukkitObjectInputStream;
-import org.bukkit.util.io.BukkitObjectOutputStream;
-import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 
 public class DatabaseManager {
 
     private final Inventory_Share plugin;
-    private Connection connection;
+    private volatile ConnectionPool pool;
     private String dbType; // "mysql" or "mariadb"
 
+    // 圧縮辞書と、テーブルごとのペイロード変換
+    private final CompressionDictionaries dictionaries = new CompressionDictionaries();
+
+    // 共有グループ名と整数IDの対応表
+    private final GroupRegistry groups = new GroupRegistry();
+    private volatile PayloadCodec inventoryCodec;
+    private volatile PayloadCodec enderChestCodec;
+
+    // 接続状態の監視と、停止中に各処理を即座に失敗させるサーキットブレーカー
+    private final CircuitBreaker breaker;
+    private final HealthMonitor healthMonitor;
+
+    // 同時に参加したプレイヤーの読み込みを1回のクエリにまとめる
+    private final LoadBatcher<StoredRows> stateBatcher;
+    private final LoadBatcher<StoredRows> stampBatcher;
+
     public DatabaseManager(Inventory_Share plugin) {
         this.plugin = plugin;
+        this.breaker = new CircuitBreaker(plugin.getLogger(), plugin.getPluginConfig().getCircuitBreakerFailureThreshold(),
+                plugin.getPluginConfig().getCircuitBreakerOpenDuration());
+        this.healthMonitor = new HealthMonitor(plugin.getLogger(), this::probe, breaker);
+        this.stateBatcher = new LoadBatcher<>((groupIds, playerUUIDs) -> fetchRows(groupIds, playerUUIDs, true),
+                plugin.getPluginConfig().getLoadBatchWindow(), plugin.getPluginConfig().getLoadBatchMaxSize());
+        this.stampBatcher = new LoadBatcher<>((groupIds, playerUUIDs) -> fetchRows(groupIds, playerUUIDs, false),
+                plugin.getPluginConfig().getLoadBatchWindow(), plugin.getPluginConfig().getLoadBatchMaxSize());
     }
 
-    public boolean connect() {
+    public synchronized boolean connect() {
         Config config = plugin.getPluginConfig();
         this.dbType = config.getDbType().toLowerCase(); // 設定からデータベースタイプを取得
 
@@ -46,11 +100,53 @@ public class DatabaseManager {
                 plugin.getLogger().info("MySQL JDBCドライバーを使用します");
             }
 
-            connection = DriverManager.getConnection(url, config.getDbUser(), config.getDbPassword());
-            createTables();
-            plugin.getLogger().info("データベース接続に成功しました (" + dbType + ")");
+            ConnectionPool.Settings settings = new ConnectionPool.Settings(
+                    config.getPoolMinIdle(),
+                    config.getPoolMaxSize(),
+                    config.getPoolConnectionTimeout(),
+                    config.getPoolIdleTimeout(),
+                    config.getPoolMaxLifetime(),
+                    config.getPoolLeakDetectionThreshold(),
+                    config.getPoolValidationTimeout(),
+                    config.getQueryTimeout()
+            );
+            inventoryCodec = new PayloadCodec("inventory", CompressionSettings.fromName(
+                    config.getInventoryCompression(), config.isCompressionUseDictionary(),
+                    config.getCompressionMinSize(), plugin.getLogger()), dictionaries);
+            enderChestCodec = new PayloadCodec("enderchest", CompressionSettings.fromName(
+                    config.getEnderChestCompression(), config.isCompressionUseDictionary(),
+                    config.getCompressionMinSize(), plugin.getLogger()), dictionaries);
+
+            ConnectionPool newPool = new ConnectionPool(plugin.getLogger(), url,
+                    config.getDbUser(), config.getDbPassword(), settings);
+            try {
+                newPool.start();
+                try (Connection connection = newPool.getConnection()) {
+                    migrateSchema(connection);
+                    loadDictionaries(connection);
+                }
+            } catch (SQLException e) {
+                newPool.close();
+                throw e;
+            }
+
+            ConnectionPool oldPool = pool;
+            pool = newPool;
+            if (oldPool != null) {
+                oldPool.close();
+            }
+
+            // 接続できたので遮断を解除し、接続状態の監視を（設定を反映して）開始する
+            breaker.configure(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenDuration());
+            stateBatcher.configure(config.getLoadBatchWindow(), config.getLoadBatchMaxSize());
+            stampBatcher.configure(config.getLoadBatchWindow(), config.getLoadBatchMaxSize());
+            breaker.recordSuccess();
+            healthMonitor.start(config.getHealthCheckInterval());
+
+            plugin.getLogger().info("データベース接続に成功しました (" + dbType + ", プール " + settings + ")");
             return true;
         } catch (SQLException | ClassNotFoundException e) {
+            breaker.recordFailure(e.getMessage());
             plugin.getLogger().log(Level.SEVERE, "データベース接続エラー: " + e.getMessage(), e);
             return false;
         }
@@ -69,55 +165,113 @@ public class DatabaseManager {
         String params = "?useSSL=" + config.isDbUseSSL() +
                 "&useUnicode=true&characterEncoding=utf8" +
                 "&serverTimezone=UTC" + // タイムゾーン設定
+                "&connectTimeout=" + config.getPoolConnectionTimeout() + // 接続できないホストで待ち続けないようにする
                 "&allowPublicKeyRetrieval=true"; // 公開鍵の取得を許可
 
         return baseUrl + params;
     }
 
     public void reconnect() {
-        disconnect();
+        // 新しいプールの作成に成功した時点で古いプールを閉じる（使用中の接続は返却時に閉じられる）
         connect();
     }
 
-    public void disconnect() {
+    public synchronized void disconnect() {
+        healthMonitor.stop();
+        if (pool != null && !pool.isClosed()) {
+            pool.close();
+            plugin.getLogger().info("データベース接続を閉じました");
+        }
+    }
+
+    // プールから接続を借りる。呼び出し側は必ず try-with-resources で返却すること
+    // サーキットブレーカーが開いている間は、接続を試みずに即座に失敗する
+    public Connection getConnection() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null || current.isClosed()) {
+            throw new SQLException("データベースに接続されていません");
+        }
+        if (!breaker.allowRequest()) {
+            throw new SQLTransientConnectionException("データベースに接続できない状態のため、処理を中止しました (サーキットブレーカー: " +
+                    breaker.getState() + ")");
+        }
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                plugin.getLogger().info("データベース接続を閉じました");
-            }
+            // プールが貸し出し時に検証を行うため、借りられれば接続できている
+            Connection connection = current.getConnection();
+            breaker.recordSuccess();
+            return connection;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "データベース切断エラー: " + e.getMessage(), e);
+            breaker.recordFailure(e.getMessage());
+            throw e;
         }
     }
 
-    public boolean isConnectionValid() {
-        try {
-            if (connection == null || connection.isClosed()) {
-                return false;
-            }
+    // ヘルスモニターからの接続確認（サーキットブレーカーを通さない）
+    private void probe() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null || current.isClosed()) {
+            throw new SQLException("データベースに接続されていません");
+        }
+        try (Connection connection = current.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 1");
+        }
+    }
+
+    // データベースが停止していると判定されている間は false（ログインの受け付けなどを待たずに判断するため）
+    public boolean isAvailable() {
+        return !breaker.isRejecting();
+    }
+
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return breaker.getState();
+    }
+
+    public String getHealthStats() {
+        return breaker.getStats() + ", ヘルスチェック=" + healthMonitor.getStats();
+    }
 
-            // タイムアウト5秒で接続の有効性をチェック
-            return connection.isValid(5);
+    public boolean isConnectionValid() {
+        // プールが貸し出し時に検証を行うため、借りられれば有効とみなす
+        try (Connection connection = getConnection()) {
+            return !connection.isClosed();
         } catch (SQLException e) {
             plugin.getLogger().log(Level.WARNING, "接続チェックエラー: " + e.getMessage(), e);
             return false;
         }
     }
 
+    // 接続状態はヘルスモニターが確認しているため、停止中と判定されている間は待たずに false を返す
     public boolean ensureConnection() {
-        try {
-            if (!isConnectionValid()) {
-                plugin.getLogger().log(Level.INFO, "データベース接続が無効なため、再接続を試みます。");
-                return connect();
-            }
+        if (breaker.isRejecting()) {
+            return false;
+        }
+        ConnectionPool current = pool;
+        if (current != null && !current.isClosed()) {
             return true;
+        }
+        try {
+            plugin.getLogger().log(Level.INFO, "データベース接続が無効なため、再接続を試みます。");
+            return connect();
         } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "データベース再接続エラー: " + e.getMessage(), e);
             return false;
         }
     }
 
-    private void createTables() throws SQLException {
+    public String getPoolStats() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            return "未接続";
+        }
+        return "合計=" + current.getTotalConnections() +
+                ", 使用中=" + current.getActiveConnections() +
+                ", 待機=" + current.getIdleConnections() +
+                ", 取得待ちスレッド=" + current.getThreadsAwaitingConnection() +
+                ", 最大=" + current.getMaxSize();
+    }
+
+    private void migrateSchema(Connection connection) throws SQLException {
         // データベースエンジンの設定（MariaDBとMySQLで互換性を保つ）
         String engineClause = "";
         if ("mariadb".equals(dbType)) {
@@ -126,42 +280,98 @@ public class DatabaseManager {
             engineClause = " ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci";
         }
 
-        try (Statement statement = connection.createStatement()) {
-            // インベントリテーブル
-            statement.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS inventory_data (" +
-                            "uuid VARCHAR(36) NOT NULL, " +
-                            "server_group VARCHAR(64) NOT NULL, " +
-                            "inventory LONGTEXT, " +
-                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
-                            "PRIMARY KEY (uuid, server_group)" +
-                            ")" + engineClause
-            );
+        // マイグレーションはバージョン順に実行される。追加する場合は末尾に新しいバージョンを足すこと
+        SchemaMigrator migrator = new SchemaMigrator(plugin.getLogger(), engineClause, Arrays.asList(
+                new InitialSchemaMigration(),
+                new BinaryKeyMigration(groups),
+                new SessionTableMigration(),
+                new FreshnessIndexMigration()
+        ));
+        int version = migrator.migrate(connection);
 
-            // エンダーチェストテーブル
-            statement.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS enderchest_data (" +
-                            "uuid VARCHAR(36) NOT NULL, " +
-                            "server_group VARCHAR(64) NOT NULL, " +
-                            "enderchest LONGTEXT, " +
-                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
-                            "PRIMARY KEY (uuid, server_group)" +
-                            ")" + engineClause
-            );
+        // このサーバーが属するグループのIDを登録しておく
+        groups.load(connection);
+        Config config = plugin.getPluginConfig();
+        for (String serverGroup : config.getServerGroups(config.getServerId())) {
+            groups.getOrCreate(connection, serverGroup);
+        }
 
-            // 経済データテーブル
-            statement.executeUpdate(
-                    "CREATE TABLE IF NOT EXISTS economy_data (" +
-                            "uuid VARCHAR(36) NOT NULL, " +
-                            "server_group VARCHAR(64) NOT NULL, " +
-                            "balance DECIMAL(16,2) DEFAULT 0, " +
-                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
-                            "PRIMARY KEY (uuid, server_group)" +
-                            ")" + engineClause
-            );
+        plugin.getLogger().info("データベーステーブルの作成/確認が完了しました (スキーマ v" + version + ")");
+    }
+
+    private void loadDictionaries(Connection connection) throws SQLException {
+        dictionaries.clear();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, data_type, dictionary FROM compression_dictionaries")) {
+            while (resultSet.next()) {
+                dictionaries.put(resultSet.getInt("id"), resultSet.getString("data_type"), resultSet.getBytes("dictionary"));
+            }
+        }
+        if (dictionaries.size() > 0) {
+            plugin.getLogger().info("圧縮辞書を " + dictionaries.size() + " 件読み込みました");
+        }
+    }
+
+    // 既存の行から圧縮辞書を学習して登録する。作成した辞書のIDを返す
+    public int trainDictionary(String dataType, int sampleLimit, int dictionarySize) throws SQLException, IOException {
+        PayloadCodec codec = getCodec(dataType);
+        String table = "inventory".equals(dataType) ? "inventory_data" : "enderchest_data";
+
+        List<byte[]> samples = new ArrayList<>();
+        int totalBytes = 0;
+        String sql = "SELECT " + dataType + " FROM " + table + " WHERE " + dataType + " IS NOT NULL " +
+                "ORDER BY last_updated DESC LIMIT ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, sampleLimit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next() && totalBytes < DictionaryTrainer.MAX_SAMPLE_BYTES) {
+                    try (InputStream payload = resultSet.getBinaryStream(1)) {
+                        byte[] raw = codec.decompress(payload);
+                        // 旧Base64形式の行は新形式と内容が異なるため学習に使わない
+                        if (ItemStackCodec.isBinaryFormat(raw)) {
+                            samples.add(raw);
+                            totalBytes += raw.length;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (samples.size() < 2) {
+            throw new IOException("学習に使えるデータが不足しています (" + samples.size() + " 件)");
+        }
 
-            plugin.getLogger().info("データベーステーブルの作成/確認が完了しました");
+        byte[] dictionary = DictionaryTrainer.train(samples, dictionarySize);
+
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO compression_dictionaries (data_type, dictionary) VALUES (?, ?)",
+                     Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, dataType);
+            statement.setBytes(2, dictionary);
+            statement.executeUpdate();
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("辞書IDを取得できませんでした");
+                }
+                int id = keys.getInt(1);
+                dictionaries.put(id, dataType, dictionary);
+                plugin.getLogger().info(dataType + " 用の圧縮辞書 #" + id + " を作成しました (" +
+                        dictionary.length + " バイト, サンプル " + samples.size() + " 件)");
+                return id;
+            }
+        }
+    }
+
+    private PayloadCodec getCodec(String dataType) {
+        if ("inventory".equals(dataType)) {
+            return inventoryCodec;
+        }
+        if ("enderchest".equals(dataType)) {
+            return enderChestCodec;
         }
+        throw new IllegalArgumentException("不明なデータ種別です: " + dataType);
     }
 
     public String getDbType() {
@@ -169,192 +379,983 @@ public class DatabaseManager {
     }
 
     public String getDatabaseInfo() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                DatabaseMetaData metaData = connection.getMetaData();
-                return metaData.getDatabaseProductName() + " " + metaData.getDatabaseProductVersion();
-            }
+        try (Connection connection = getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            return metaData.getDatabaseProductName() + " " + metaData.getDatabaseProductVersion();
         } catch (SQLException e) {
             plugin.getLogger().log(Level.WARNING, "データベース情報の取得エラー: " + e.getMessage(), e);
         }
         return "Unknown";
     }
 
-    public void saveInventory(UUID playerUUID, String serverGroup, ItemStack[] inventory) {
+    public ItemStack[] loadInventory(UUID playerUUID, String serverGroup) {
         try {
             if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、インベントリの保存に失敗しました。");
-                return;
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、インベントリの読み込みに失敗しました。");
+                return null;
             }
 
-            String serializedInventory = itemStackArrayToBase64(inventory);
+            String sql = "SELECT inventory, delta_count FROM inventory_data WHERE uuid = ? AND group_id = ?";
+            int groupId = groupId(serverGroup);
+
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, UuidBytes.toBytes(playerUUID));
+                statement.setInt(2, groupId);
 
-            String sql = "INSERT INTO inventory_data (uuid, server_group, inventory) VALUES (?, ?, ?) " +
-                    "ON DUPLICATE KEY UPDATE inventory = ?";
+                ItemStack[] inventory;
+                int deltaCount;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    try (InputStream serializedInventory = resultSet.getBinaryStream("inventory")) {
+                        inventory = inventoryCodec.decode(serializedInventory);
+                    }
+                    deltaCount = resultSet.getInt("delta_count");
+                }
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
-                statement.setString(3, serializedInventory);
-                statement.setString(4, serializedInventory);
-                statement.executeUpdate();
+                // 差分保存モードで書き込まれた差分を順に適用する
+                if (deltaCount > 0) {
+                    String deltaSql = "SELECT changes FROM inventory_deltas WHERE uuid = ? AND group_id = ? ORDER BY id";
+                    try (PreparedStatement deltaStatement = connection.prepareStatement(deltaSql)) {
+                        deltaStatement.setBytes(1, UuidBytes.toBytes(playerUUID));
+                        deltaStatement.setInt(2, groupId);
+                        try (ResultSet resultSet = deltaStatement.executeQuery()) {
+                            while (resultSet.next()) {
+                                inventory = applyInventoryDelta(inventory, resultSet.getBytes("changes"));
+                            }
+                        }
+                    }
+                }
+                return inventory;
             }
         } catch (SQLException | IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "インベントリ保存エラー: " + e.getMessage(), e);
+            plugin.getLogger().log(Level.SEVERE, "インベントリ読み込みエラー: " + e.getMessage(), e);
         }
+
+        return null;
     }
 
-    public ItemStack[] loadInventory(UUID playerUUID, String serverGroup) {
+    public ItemStack[] loadEnderChest(UUID playerUUID, String serverGroup) {
         try {
             if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、インベントリの読み込みに失敗しました。");
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、エンダーチェストの読み込みに失敗しました。");
                 return null;
             }
 
-            String sql = "SELECT inventory FROM inventory_data WHERE uuid = ? AND server_group = ?";
+            String sql = "SELECT enderchest FROM enderchest_data WHERE uuid = ? AND group_id = ?";
+            int groupId = groupId(serverGroup);
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, UuidBytes.toBytes(playerUUID));
+                statement.setInt(2, groupId);
 
                 try (ResultSet resultSet = statement.executeQuery()) {
                     if (resultSet.next()) {
-                        String serializedInventory = resultSet.getString("inventory");
-                        return itemStackArrayFromBase64(serializedInventory);
+                        try (InputStream serializedEnderChest = resultSet.getBinaryStream("enderchest")) {
+                            return enderChestCodec.decode(serializedEnderChest);
+                        }
                     }
                 }
             }
-        } catch (SQLException | IOException | ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE, "インベントリ読み込みエラー: " + e.getMessage(), e);
+        } catch (SQLException | IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "エンダーチェスト読み込みエラー: " + e.getMessage(), e);
         }
 
         return null;
     }
 
-    public void saveEnderChest(UUID playerUUID, String serverGroup, ItemStack[] enderChest) {
+    // インベントリ・エンダーチェスト・所持金を1回のクエリでまとめて読み込む
+    // 同時に参加したプレイヤーの読み込みは1回のクエリにまとめられる（デコードは呼び出しスレッドで行う）
+    // 複数のグループに属する場合は読み込み方式 (storage.load-policy) に従って読み込み元を選ぶ
+    public PlayerState loadPlayerState(UUID playerUUID, List<String> serverGroups) {
         try {
             if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、エンダーチェストの保存に失敗しました。");
-                return;
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、プレイヤーデータの読み込みに失敗しました。");
+                return null;
             }
 
-            String serializedEnderChest = itemStackArrayToBase64(enderChest);
-
-            String sql = "INSERT INTO enderchest_data (uuid, server_group, enderchest) VALUES (?, ?, ?) " +
-                    "ON DUPLICATE KEY UPDATE enderchest = ?";
+            StoredRows rows = stateBatcher.load(loadGroupIds(serverGroups), playerUUID);
+            if (rows == null) {
+                rows = new StoredRows();
+            }
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
-                statement.setString(3, serializedEnderChest);
-                statement.setString(4, serializedEnderChest);
-                statement.executeUpdate();
+            // 接続を返却してから、エンダーチェストをエンコード用のスレッドで並行してデコードする
+            // （エンコード用のスレッドがない場合はこのスレッドでデコードする）
+            final byte[] enderChestBytes = rows.enderChestPayload;
+            EncodeStage encodeStage = plugin.getEncodeStage();
+            CompletableFuture<ItemStack[]> enderChestFuture = enderChestBytes == null
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.supplyAsync(() -> decodeUnchecked(enderChestCodec, enderChestBytes),
+                    encodeStage != null ? encodeStage.getExecutor() : Runnable::run);
+            ItemStack[] inventory = rows.inventoryPayload == null ? null
+                    : inventoryCodec.decode(new ByteArrayInputStream(rows.inventoryPayload));
+            for (byte[] delta : rows.inventoryDeltas.values()) {
+                inventory = applyInventoryDelta(inventory, delta);
             }
+            ItemStack[] enderChest = enderChestFuture.join();
+
+            return new PlayerState(inventory, enderChest, rows.balance, rows.inventoryFingerprint,
+                    rows.enderChestFingerprint, rows.inventoryDeltas.size(), joinStamp(rows.stamp));
         } catch (SQLException | IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "エンダーチェスト保存エラー: " + e.getMessage(), e);
+            plugin.getLogger().log(Level.SEVERE, "プレイヤーデータ読み込みエラー: " + e.getMessage(), e);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            plugin.getLogger().log(Level.SEVERE, "エンダーチェスト読み込みエラー: " + cause.getMessage(), cause);
         }
+
+        return null;
     }
 
-    public ItemStack[] loadEnderChest(UUID playerUUID, String serverGroup) {
+    // 行の更新状況だけを読み込む（データ本体は読まない）
+    // loadPlayerState で読み込んだ PlayerState#getStamp と一致すれば、その後データベースは更新されていない
+    public String loadPlayerStamp(UUID playerUUID, List<String> serverGroups) {
         try {
             if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、エンダーチェストの読み込みに失敗しました。");
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、プレイヤーデータの確認に失敗しました。");
                 return null;
             }
 
-            String sql = "SELECT enderchest FROM enderchest_data WHERE uuid = ? AND server_group = ?";
+            StoredRows rows = stampBatcher.load(loadGroupIds(serverGroups), playerUUID);
+            return joinStamp(rows != null ? rows.stamp : new ArrayList<>());
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "プレイヤーデータ確認エラー: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public String getLoadBatchStats() {
+        return "読み込み: " + stateBatcher.getStats() + " / 更新確認: " + stampBatcher.getStats();
+    }
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
+    // 読み込み元のグループ（newest: 全グループ / primary: 先頭のグループのみ）
+    private List<Integer> loadGroupIds(List<String> serverGroups) throws SQLException {
+        int count = plugin.getPluginConfig().isLoadNewest() ? serverGroups.size() : Math.min(1, serverGroups.size());
+        List<Integer> groupIds = new ArrayList<>(count);
+        for (String serverGroup : serverGroups.subList(0, count)) {
+            groupIds.add(groupId(serverGroup));
+        }
+        return groupIds;
+    }
 
-                try (ResultSet resultSet = statement.executeQuery()) {
-                    if (resultSet.next()) {
-                        String serializedEnderChest = resultSet.getString("enderchest");
-                        return itemStackArrayFromBase64(serializedEnderChest);
+    // 複数プレイヤーの行を全グループ分まとめて読み込む（LoadBatcher から呼ばれる）
+    // 項目ごとに最も新しく保存されたグループの行を選ぶ（同時刻の場合は groupIds の先頭に近いグループ）
+    private Map<UUID, StoredRows> fetchRows(List<Integer> groupIds, List<UUID> playerUUIDs, boolean withPayload) throws SQLException {
+        Map<UUID, Map<Integer, StoredRows>> fetched = new HashMap<>();
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     playerStateQuery(withPayload, groupIds.size(), playerUUIDs.size()))) {
+            int index = 1;
+            for (int i = 0; i < 4; i++) {
+                for (int groupId : groupIds) {
+                    statement.setInt(index++, groupId);
+                }
+                for (UUID playerUUID : playerUUIDs) {
+                    statement.setBytes(index++, UuidBytes.toBytes(playerUUID));
+                }
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    StoredRows rows = fetched.computeIfAbsent(UuidBytes.fromBytes(resultSet.getBytes("uuid")),
+                            key -> new HashMap<>()).computeIfAbsent(resultSet.getInt("group_id"), key -> new StoredRows());
+                    rows.stamp.add(resultSet.getInt("group_id") + ":" + stampEntry(resultSet));
+                    switch (resultSet.getString("kind")) {
+                        case "i":
+                            rows.hasInventory = true;
+                            rows.inventoryPayload = resultSet.getBytes("payload");
+                            rows.inventoryFingerprint = getNullableLong(resultSet, "fingerprint");
+                            rows.inventoryUpdated = resultSet.getTimestamp("updated");
+                            break;
+                        case "e":
+                            rows.hasEnderChest = true;
+                            rows.enderChestPayload = resultSet.getBytes("payload");
+                            rows.enderChestFingerprint = getNullableLong(resultSet, "fingerprint");
+                            rows.enderChestUpdated = resultSet.getTimestamp("updated");
+                            break;
+                        case "b":
+                            rows.balance = resultSet.getDouble("balance");
+                            rows.balanceUpdated = resultSet.getTimestamp("updated");
+                            break;
+                        case "d":
+                            rows.inventoryDeltas.put(resultSet.getLong("fingerprint"), resultSet.getBytes("payload"));
+                            break;
+                        default:
+                            break;
                     }
                 }
             }
-        } catch (SQLException | IOException | ClassNotFoundException e) {
-            plugin.getLogger().log(Level.SEVERE, "エンダーチェスト読み込みエラー: " + e.getMessage(), e);
         }
 
-        return null;
+        Map<UUID, StoredRows> results = new HashMap<>();
+        for (Map.Entry<UUID, Map<Integer, StoredRows>> entry : fetched.entrySet()) {
+            results.put(entry.getKey(), selectNewest(groupIds, entry.getValue()));
+        }
+        return results;
+    }
+
+    // グループごとの行から、項目ごとに最も新しいものを選んで1人分にまとめる
+    // インベントリの差分は、選んだグループの全体と組み合わせる（他のグループの差分は混ぜない）
+    private static StoredRows selectNewest(List<Integer> groupIds, Map<Integer, StoredRows> byGroup) {
+        StoredRows selected = new StoredRows();
+        StoredRows inventory = null;
+        StoredRows enderChest = null;
+        StoredRows balance = null;
+        for (int groupId : groupIds) {
+            StoredRows rows = byGroup.get(groupId);
+            if (rows == null) {
+                continue;
+            }
+            // 更新状況は全グループ分を含める（どのグループが更新されても変わる）
+            selected.stamp.addAll(rows.stamp);
+            if (rows.hasInventory && (inventory == null || isNewer(rows.inventoryUpdated, inventory.inventoryUpdated))) {
+                inventory = rows;
+            }
+            if (rows.hasEnderChest && (enderChest == null || isNewer(rows.enderChestUpdated, enderChest.enderChestUpdated))) {
+                enderChest = rows;
+            }
+            if (rows.balance != null && (balance == null || isNewer(rows.balanceUpdated, balance.balanceUpdated))) {
+                balance = rows;
+            }
+        }
+
+        // フィンガープリントは全グループの内容が一致する場合のみ返す（一致しない場合は null）
+        // 保存時は全グループに同じ差分を追加するため、基準と異なる内容のグループがあると差分を適用できない
+        // null の場合は変更追跡に記録されず、最初の保存で全グループの全体が書き直される
+        if (inventory != null) {
+            selected.inventoryPayload = inventory.inventoryPayload;
+            selected.inventoryDeltas.putAll(inventory.inventoryDeltas);
+            boolean consistent = true;
+            for (int groupId : groupIds) {
+                StoredRows rows = byGroup.get(groupId);
+                if (rows == null || !rows.hasInventory || !Objects.equals(rows.inventoryFingerprint, inventory.inventoryFingerprint)) {
+                    consistent = false;
+                    break;
+                }
+            }
+            selected.inventoryFingerprint = consistent ? inventory.inventoryFingerprint : null;
+        }
+        if (enderChest != null) {
+            selected.enderChestPayload = enderChest.enderChestPayload;
+            boolean consistent = true;
+            for (int groupId : groupIds) {
+                StoredRows rows = byGroup.get(groupId);
+                if (rows == null || !rows.hasEnderChest || !Objects.equals(rows.enderChestFingerprint, enderChest.enderChestFingerprint)) {
+                    consistent = false;
+                    break;
+                }
+            }
+            selected.enderChestFingerprint = consistent ? enderChest.enderChestFingerprint : null;
+        }
+        if (balance != null) {
+            selected.balance = balance.balance;
+        }
+        return selected;
+    }
+
+    private static boolean isNewer(Timestamp updated, Timestamp current) {
+        return updated != null && (current == null || updated.after(current));
     }
 
-    public void saveEconomy(UUID playerUUID, String serverGroup, double balance) {
+    // インベントリ・エンダーチェスト・所持金・インベントリの差分を1回で読み込むクエリ（groups グループ × players 人分）
+    // withPayload が false の場合はデータ本体の代わりに NULL を返す（インデックスだけで返せる列のみ読む）
+    private static String playerStateQuery(boolean withPayload, int groups, int players) {
+        String where = "WHERE group_id IN (" + placeholders(groups) + ") AND uuid IN (" + placeholders(players) + ")";
+        return "SELECT uuid, group_id, 'i' AS kind, " + (withPayload ? "inventory" : "NULL") + " AS payload, NULL AS balance, " +
+                "fingerprint, last_updated AS updated FROM inventory_data " + where +
+                " UNION ALL SELECT uuid, group_id, 'e', " + (withPayload ? "enderchest" : "NULL") + ", NULL, fingerprint, last_updated " +
+                "FROM enderchest_data " + where +
+                " UNION ALL SELECT uuid, group_id, 'b', NULL, balance, NULL, last_updated FROM economy_data " + where +
+                " UNION ALL SELECT uuid, group_id, 'd', " + (withPayload ? "changes" : "NULL") + ", NULL, id, NULL " +
+                "FROM inventory_deltas " + where;
+    }
+
+    private static String stampEntry(ResultSet resultSet) throws SQLException {
+        return resultSet.getString("kind") + ":" + resultSet.getString("fingerprint") + ":" +
+                resultSet.getString("updated") + ":" + resultSet.getString("balance");
+    }
+
+    // UNION ALL の行の順序は保証されないため、並べ替えてから連結する
+    private static String joinStamp(List<String> entries) {
+        Collections.sort(entries);
+        return String.join(",", entries);
+    }
+
+    // 1人分の読み込み結果（デコード前）
+    private static class StoredRows {
+        private byte[] inventoryPayload;
+        private byte[] enderChestPayload;
+        private Double balance;
+        private Long inventoryFingerprint;
+        private Long enderChestFingerprint;
+        private boolean hasInventory;
+        private boolean hasEnderChest;
+        private Timestamp inventoryUpdated;
+        private Timestamp enderChestUpdated;
+        private Timestamp balanceUpdated;
+        // インベントリの差分（id 順に適用する）
+        private final TreeMap<Long, byte[]> inventoryDeltas = new TreeMap<>();
+        private final List<String> stamp = new ArrayList<>();
+    }
+
+    // 有効な項目を全グループ分、1つのトランザクションで保存する（コミットは1回）
+    // 他のサーバーから保存途中の状態が見えることはない
+    // セッションの所有者と version を比較し、引き継ぎ後の古い書き込みは破棄する（再試行不要のため true を返す）
+    public boolean savePlayerState(UUID playerUUID, List<String> serverGroups, PlayerState state, SessionLease lease) {
         try {
             if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、経済データの保存に失敗しました。");
-                return;
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、プレイヤーデータの保存に失敗しました。");
+                return false;
+            }
+
+            DirtyTracker tracker = plugin.getDirtyTracker();
+
+            // シリアライズはグループ数に関係なく1回だけ行い、前回と同じ内容なら書き込まない
+            InventoryWrite inventoryWrite = state.getInventory() == null ? null
+                    : prepareInventoryWrite(playerUUID, state, tracker);
+
+            byte[] enderChestPayload = null;
+            long enderChestFingerprint = 0L;
+            if (state.getEnderChest() != null) {
+                byte[] raw = state.getEncodedEnderChest();
+                enderChestFingerprint = DirtyTracker.fingerprint(raw);
+                if (!tracker.isUnchanged(playerUUID, DirtyTracker.ENDER_CHEST, enderChestFingerprint)) {
+                    enderChestPayload = enderChestCodec.compress(raw);
+                }
             }
 
-            String sql = "INSERT INTO economy_data (uuid, server_group, balance) VALUES (?, ?, ?) " +
-                    "ON DUPLICATE KEY UPDATE balance = ?";
+            if (inventoryWrite == null && enderChestPayload == null && state.getBalance() == null) {
+                // 変更がないため書き込みを省略
+                return true;
+            }
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
-                statement.setDouble(3, balance);
-                statement.setDouble(4, balance);
-                statement.executeUpdate();
+            List<Integer> groupIds = new ArrayList<>(serverGroups.size());
+            for (String serverGroup : serverGroups) {
+                groupIds.add(groupId(serverGroup));
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "経済データ保存エラー: " + e.getMessage(), e);
+
+            try (Connection connection = getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    byte[] uuid = UuidBytes.toBytes(playerUUID);
+
+                    if (!advanceSessionVersion(connection, uuid, serverGroups, groupIds, lease)) {
+                        connection.rollback();
+                        plugin.getLogger().warning(playerUUID + " のセッションをこのサーバーが所有していないため (他のサーバーに引き継ぎ済み)、保存を破棄しました。");
+                        return true;
+                    }
+
+                    if (inventoryWrite != null) {
+                        if (inventoryWrite.delta) {
+                            appendInventoryDelta(connection, uuid, groupIds, inventoryWrite);
+                        } else {
+                            writeInventoryBase(connection, uuid, groupIds, inventoryWrite);
+                        }
+                    }
+                    if (enderChestPayload != null) {
+                        upsertPayload(connection, "enderchest_data", "enderchest", uuid, groupIds,
+                                enderChestPayload, enderChestFingerprint);
+                    }
+                    if (state.getBalance() != null) {
+                        executeForGroups(connection, "INSERT INTO economy_data (uuid, group_id, balance) " +
+                                        "SELECT ?, id, ? " + fromGroups(groupIds.size()) +
+                                        " ON DUPLICATE KEY UPDATE balance = VALUES(balance)",
+                                groupIds, uuid, state.getBalance());
+                    }
+
+                    connection.commit();
+
+                    for (String serverGroup : serverGroups) {
+                        lease.setVersion(serverGroup, lease.getVersion(serverGroup) + 1);
+                    }
+
+                    // コミット後に、データベース上の内容として記録する
+                    if (inventoryWrite != null) {
+                        tracker.recordFingerprint(playerUUID, DirtyTracker.INVENTORY, inventoryWrite.fingerprint);
+                        if (inventoryWrite.slots != null) {
+                            tracker.recordSlotBaseline(playerUUID, inventoryWrite.slots, inventoryWrite.deltaCount);
+                        } else {
+                            tracker.forgetSlotBaseline(playerUUID);
+                        }
+                    }
+                    if (enderChestPayload != null) {
+                        tracker.recordFingerprint(playerUUID, DirtyTracker.ENDER_CHEST, enderChestFingerprint);
+                    }
+                    return true;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        } catch (SQLException | IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "プレイヤーデータ保存エラー: " + e.getMessage(), e);
+            return false;
         }
     }
 
-    public double loadEconomy(UUID playerUUID, String serverGroup) {
+    // 停止時の一括保存。複数プレイヤー分を複数行の INSERT ... ON DUPLICATE KEY UPDATE でまとめて書き込む
+    // batchSize 人ごとに1トランザクションとし、保存と同じトランザクションでセッションも解放する
+    // 処理済みのプレイヤー（保存した、または他のサーバーに引き継がれていたため破棄した）はコミットごとに done に追加する
+    public void savePlayerStatesBulk(Map<UUID, PlayerState> states, List<String> serverGroups,
+                                     Map<UUID, SessionLease> leases, int batchSize, Set<UUID> done) {
+        if (states.isEmpty()) {
+            return;
+        }
+        if (!ensureConnection()) {
+            plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、プレイヤーデータの一括保存に失敗しました。");
+            return;
+        }
+
+        List<Integer> groupIds = new ArrayList<>(serverGroups.size());
         try {
-            if (!ensureConnection()) {
-                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、経済データの読み込みに失敗しました。");
-                return 0.0;
+            for (String serverGroup : serverGroups) {
+                groupIds.add(groupId(serverGroup));
             }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "プレイヤーデータ一括保存エラー: " + e.getMessage(), e);
+            return;
+        }
 
-            String sql = "SELECT balance FROM economy_data WHERE uuid = ? AND server_group = ?";
+        List<UUID> playerUUIDs = new ArrayList<>(states.keySet());
+        for (int from = 0; from < playerUUIDs.size(); from += batchSize) {
+            List<UUID> chunk = playerUUIDs.subList(from, Math.min(playerUUIDs.size(), from + batchSize));
+            try {
+                saveChunk(chunk, states, serverGroups, groupIds, leases);
+                done.addAll(chunk);
+            } catch (SQLException | IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "プレイヤーデータ一括保存エラー (" + chunk.size() + " 人): " + e.getMessage(), e);
+            }
+        }
+    }
 
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, playerUUID.toString());
-                statement.setString(2, serverGroup);
+    private void saveChunk(List<UUID> chunk, Map<UUID, PlayerState> states, List<String> serverGroups,
+                           List<Integer> groupIds, Map<UUID, SessionLease> leases) throws SQLException, IOException {
+        DirtyTracker tracker = plugin.getDirtyTracker();
+        boolean deltaMode = plugin.getPluginConfig().isInventoryDeltaMode();
 
-                try (ResultSet resultSet = statement.executeQuery()) {
-                    if (resultSet.next()) {
-                        return resultSet.getDouble("balance");
+        // 圧縮はトランザクションの外で行い、前回と同じ内容の項目は書き込まない
+        // 停止後は差分の基準が失われるため、差分保存モードでも全体を書き直す（溜まった差分は削除する）
+        Map<UUID, byte[]> inventoryPayloads = new HashMap<>();
+        Map<UUID, Long> inventoryFingerprints = new HashMap<>();
+        Map<UUID, byte[]> enderChestPayloads = new HashMap<>();
+        Map<UUID, Long> enderChestFingerprints = new HashMap<>();
+        for (UUID playerUUID : chunk) {
+            PlayerState state = states.get(playerUUID);
+            if (state.getInventory() != null) {
+                byte[] raw = state.getEncodedInventory();
+                long fingerprint = deltaMode ? SlotDeltaCodec.fingerprint(state.getEncodedInventorySlots())
+                        : DirtyTracker.fingerprint(raw);
+                if (!tracker.isUnchanged(playerUUID, DirtyTracker.INVENTORY, fingerprint)) {
+                    inventoryPayloads.put(playerUUID, inventoryCodec.compress(raw));
+                    inventoryFingerprints.put(playerUUID, fingerprint);
+                }
+            }
+            if (state.getEnderChest() != null) {
+                byte[] raw = state.getEncodedEnderChest();
+                long fingerprint = DirtyTracker.fingerprint(raw);
+                if (!tracker.isUnchanged(playerUUID, DirtyTracker.ENDER_CHEST, fingerprint)) {
+                    enderChestPayloads.put(playerUUID, enderChestCodec.compress(raw));
+                    enderChestFingerprints.put(playerUUID, fingerprint);
+                }
+            }
+        }
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<UUID> owned = lockOwnedSessions(connection, chunk, serverGroups, groupIds, leases);
+                if (owned.size() < chunk.size()) {
+                    plugin.getLogger().warning((chunk.size() - owned.size()) + " 人のセッションをこのサーバーが所有していないため (他のサーバーに引き継ぎ済み)、保存を破棄しました。");
+                }
+                if (owned.isEmpty()) {
+                    connection.rollback();
+                    return;
+                }
+
+                List<Object[]> inventoryRows = new ArrayList<>();
+                List<UUID> inventoryPlayers = new ArrayList<>();
+                List<Object[]> enderChestRows = new ArrayList<>();
+                List<Object[]> economyRows = new ArrayList<>();
+                for (UUID playerUUID : owned) {
+                    byte[] uuid = UuidBytes.toBytes(playerUUID);
+                    byte[] inventoryPayload = inventoryPayloads.get(playerUUID);
+                    byte[] enderChestPayload = enderChestPayloads.get(playerUUID);
+                    Double balance = states.get(playerUUID).getBalance();
+                    if (inventoryPayload != null) {
+                        inventoryPlayers.add(playerUUID);
                     }
+                    for (int groupId : groupIds) {
+                        if (inventoryPayload != null) {
+                            inventoryRows.add(new Object[]{uuid, groupId, inventoryPayload, inventoryFingerprints.get(playerUUID)});
+                        }
+                        if (enderChestPayload != null) {
+                            enderChestRows.add(new Object[]{uuid, groupId, enderChestPayload, enderChestFingerprints.get(playerUUID)});
+                        }
+                        if (balance != null) {
+                            economyRows.add(new Object[]{uuid, groupId, balance});
+                        }
+                    }
+                }
+
+                executeMultiRowUpsert(connection,
+                        "INSERT INTO inventory_data (uuid, group_id, inventory, fingerprint, delta_count)", "(?, ?, ?, ?, 0)",
+                        "inventory = VALUES(inventory), fingerprint = VALUES(fingerprint), delta_count = 0",
+                        inventoryRows);
+                if (!inventoryPlayers.isEmpty()) {
+                    // 全体を書き直したので、それ以前の差分は不要
+                    executeForPlayers(connection, "DELETE FROM inventory_deltas WHERE group_id IN (" +
+                            placeholders(groupIds.size()) + ") AND uuid IN (" + placeholders(inventoryPlayers.size()) + ")",
+                            null, groupIds, inventoryPlayers);
                 }
+                executeMultiRowUpsert(connection,
+                        "INSERT INTO enderchest_data (uuid, group_id, enderchest, fingerprint)", "(?, ?, ?, ?)",
+                        "enderchest = VALUES(enderchest), fingerprint = VALUES(fingerprint)",
+                        enderChestRows);
+                executeMultiRowUpsert(connection,
+                        "INSERT INTO economy_data (uuid, group_id, balance)", "(?, ?, ?)",
+                        "balance = VALUES(balance)",
+                        economyRows);
+
+                // 保存と同時にセッションを解放する（version を進め、他のサーバーのキャッシュを無効にする）
+                executeForPlayers(connection, "UPDATE player_sessions SET version = version + 1, owner = NULL, lease_until = NULL " +
+                                "WHERE owner = ? AND group_id IN (" + placeholders(groupIds.size()) + ") " +
+                                "AND uuid IN (" + placeholders(owned.size()) + ")",
+                        plugin.getPluginConfig().getServerId(), groupIds, owned);
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "経済データ読み込みエラー: " + e.getMessage(), e);
         }
+    }
 
-        return 0.0;
+    // 対象プレイヤーのセッション行をロックし、全グループでこのサーバーが所有していて version が一致するプレイヤーを返す
+    private List<UUID> lockOwnedSessions(Connection connection, List<UUID> playerUUIDs, List<String> serverGroups,
+                                         List<Integer> groupIds, Map<UUID, SessionLease> leases) throws SQLException {
+        String sql = "SELECT uuid, group_id, version FROM player_sessions WHERE owner = ? AND group_id IN (" +
+                placeholders(groupIds.size()) + ") AND uuid IN (" + placeholders(playerUUIDs.size()) + ") FOR UPDATE";
+        Map<UUID, Map<Integer, Long>> versions = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindPlayers(statement, plugin.getPluginConfig().getServerId(), groupIds, playerUUIDs);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    versions.computeIfAbsent(UuidBytes.fromBytes(resultSet.getBytes("uuid")), key -> new HashMap<>())
+                            .put(resultSet.getInt("group_id"), resultSet.getLong("version"));
+                }
+            }
+        }
+
+        List<UUID> owned = new ArrayList<>();
+        for (UUID playerUUID : playerUUIDs) {
+            SessionLease lease = leases.get(playerUUID);
+            Map<Integer, Long> current = versions.get(playerUUID);
+            boolean match = lease != null && current != null;
+            for (int i = 0; match && i < serverGroups.size(); i++) {
+                Long version = lease.getVersion(serverGroups.get(i));
+                match = version != null && version.equals(current.get(groupIds.get(i)));
+            }
+            if (match) {
+                owned.add(playerUUID);
+            }
+        }
+        return owned;
+    }
+
+    // 複数行の INSERT ... ON DUPLICATE KEY UPDATE を1文で実行する（rows は行ごとのパラメーター）
+    private static void executeMultiRowUpsert(Connection connection, String insert, String row, String update,
+                                              List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(insert).append(" VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE ").append(update);
+
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Object[] values : rows) {
+                for (Object value : values) {
+                    statement.setObject(index++, value);
+                }
+            }
+            statement.executeUpdate();
+        }
     }
 
-    private String itemStackArrayToBase64(ItemStack[] items) throws IOException {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-             BukkitObjectOutputStream dataOutput = new BukkitObjectOutputStream(outputStream)) {
+    private static void executeForPlayers(Connection connection, String sql, String owner, List<Integer> groupIds,
+                                          List<UUID> playerUUIDs) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindPlayers(statement, owner, groupIds, playerUUIDs);
+            statement.executeUpdate();
+        }
+    }
 
-            dataOutput.writeInt(items.length);
+    // owner（null の場合は省略）、グループID、プレイヤーの UUID の順にパラメーターを設定する
+    private static void bindPlayers(PreparedStatement statement, String owner, List<Integer> groupIds,
+                                    List<UUID> playerUUIDs) throws SQLException {
+        int index = 1;
+        if (owner != null) {
+            statement.setString(index++, owner);
+        }
+        for (int groupId : groupIds) {
+            statement.setInt(index++, groupId);
+        }
+        for (UUID playerUUID : playerUUIDs) {
+            statement.setBytes(index++, UuidBytes.toBytes(playerUUID));
+        }
+    }
 
-            for (ItemStack item : items) {
-                dataOutput.writeObject(item);
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(", ");
             }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+
+    // 全グループのセッションがこのサーバーの所有で、version が前回の読み込み/保存時から変わっていなければ1増やす
+    // グループ数に関係なく1文で更新し、更新された行数が全グループ分であることを確認する
+    private boolean advanceSessionVersion(Connection connection, byte[] uuid, List<String> serverGroups,
+                                          List<Integer> groupIds, SessionLease lease) throws SQLException {
+        if (lease == null) {
+            return false;
+        }
+        StringBuilder sql = new StringBuilder("UPDATE player_sessions SET version = version + 1 WHERE uuid = ? AND owner = ? AND (");
+        for (int i = 0; i < serverGroups.size(); i++) {
+            sql.append(i > 0 ? " OR " : "").append("(group_id = ? AND version = ?)");
+        }
+        sql.append(")");
 
-            return Base64Coder.encodeLines(outputStream.toByteArray());
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            statement.setBytes(index++, uuid);
+            statement.setString(index++, plugin.getPluginConfig().getServerId());
+            for (int i = 0; i < serverGroups.size(); i++) {
+                Long version = lease.getVersion(serverGroups.get(i));
+                if (version == null) {
+                    return false;
+                }
+                statement.setInt(index++, groupIds.get(i));
+                statement.setLong(index++, version);
+            }
+            // 一部のグループだけが更新された場合は、呼び出し側でロールバックされる
+            return statement.executeUpdate() == serverGroups.size();
         }
     }
 
-    private ItemStack[] itemStackArrayFromBase64(String data) throws IOException, ClassNotFoundException {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64Coder.decodeLines(data));
-             BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream)) {
+    // セッションの所有権を取得し、グループごとの version を返す
+    // 他のサーバーが所有していて期限内の場合は null（force が true の場合は強制的に引き継ぐ）
+    public Map<String, Long> acquireSession(UUID playerUUID, List<String> serverGroups, long leaseMillis,
+                                            boolean force) throws SQLException {
+        List<Integer> groupIds = new ArrayList<>(serverGroups.size());
+        for (String serverGroup : serverGroups) {
+            groupIds.add(groupId(serverGroup));
+        }
+        byte[] uuid = UuidBytes.toBytes(playerUUID);
+        String owner = plugin.getPluginConfig().getServerId();
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT IGNORE INTO player_sessions (uuid, group_id) VALUES (?, ?)")) {
+                    for (int groupId : groupIds) {
+                        statement.setBytes(1, uuid);
+                        statement.setInt(2, groupId);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                Map<String, Long> versions = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT owner, lease_until < CURRENT_TIMESTAMP(3) AS expired, version FROM player_sessions " +
+                                "WHERE uuid = ? AND group_id = ? FOR UPDATE")) {
+                    for (int i = 0; i < groupIds.size(); i++) {
+                        statement.setBytes(1, uuid);
+                        statement.setInt(2, groupIds.get(i));
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            if (!resultSet.next()) {
+                                throw new SQLException("セッション行が見つかりません");
+                            }
+                            String currentOwner = resultSet.getString("owner");
+                            boolean expired = resultSet.getBoolean("expired");
+                            if (!force && currentOwner != null && !currentOwner.equals(owner) && !expired) {
+                                connection.rollback();
+                                return null;
+                            }
+                            versions.put(serverGroups.get(i), resultSet.getLong("version"));
+                        }
+                    }
+                }
 
-            ItemStack[] items = new ItemStack[dataInput.readInt()];
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE player_sessions SET owner = ?, " +
+                                "lease_until = TIMESTAMPADD(MICROSECOND, ?, CURRENT_TIMESTAMP(3)) " +
+                                "WHERE uuid = ? AND group_id = ?")) {
+                    for (int groupId : groupIds) {
+                        statement.setString(1, owner);
+                        statement.setLong(2, leaseMillis * 1000L);
+                        statement.setBytes(3, uuid);
+                        statement.setInt(4, groupId);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
 
-            for (int i = 0; i < items.length; i++) {
-                items[i] = (ItemStack) dataInput.readObject();
+                connection.commit();
+                return versions;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
+        }
+    }
 
-            return items;
+    // 再起動前にこのサーバーが所有していたセッションを再取得し、グループごとの version を返す（ジャーナルの再生用）
+    // 期限切れでも所有者がこのサーバーのままなら、その後どのサーバーも保存していない。1グループでも他のサーバーに引き継がれていれば null
+    public Map<String, Long> resumeSession(UUID playerUUID, List<String> serverGroups, long leaseMillis) throws SQLException {
+        List<Integer> groupIds = new ArrayList<>(serverGroups.size());
+        for (String serverGroup : serverGroups) {
+            groupIds.add(groupId(serverGroup));
         }
+        byte[] uuid = UuidBytes.toBytes(playerUUID);
+        String owner = plugin.getPluginConfig().getServerId();
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Map<String, Long> versions = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT owner, version FROM player_sessions WHERE uuid = ? AND group_id = ? FOR UPDATE")) {
+                    for (int i = 0; i < groupIds.size(); i++) {
+                        statement.setBytes(1, uuid);
+                        statement.setInt(2, groupIds.get(i));
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            if (!resultSet.next() || !owner.equals(resultSet.getString("owner"))) {
+                                connection.rollback();
+                                return null;
+                            }
+                            versions.put(serverGroups.get(i), resultSet.getLong("version"));
+                        }
+                    }
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE player_sessions SET lease_until = TIMESTAMPADD(MICROSECOND, ?, CURRENT_TIMESTAMP(3)) " +
+                                "WHERE uuid = ? AND group_id = ?")) {
+                    for (int groupId : groupIds) {
+                        statement.setLong(1, leaseMillis * 1000L);
+                        statement.setBytes(2, uuid);
+                        statement.setInt(3, groupId);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+
+                connection.commit();
+                return versions;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // このサーバーが所有しているセッションの期限を延長する
+    public void renewSessions(Collection<UUID> playerUUIDs, long leaseMillis) throws SQLException {
+        if (playerUUIDs.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE player_sessions SET lease_until = TIMESTAMPADD(MICROSECOND, ?, CURRENT_TIMESTAMP(3)) " +
+                "WHERE uuid = ? AND owner = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (UUID playerUUID : playerUUIDs) {
+                statement.setLong(1, leaseMillis * 1000L);
+                statement.setBytes(2, UuidBytes.toBytes(playerUUID));
+                statement.setString(3, plugin.getPluginConfig().getServerId());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    // セッションを解放する（最後の保存がコミットされた後に呼び出す）。他のサーバーに引き継がれている場合は何もしない
+    public void releaseSession(UUID playerUUID) throws SQLException {
+        String sql = "UPDATE player_sessions SET owner = NULL, lease_until = NULL WHERE uuid = ? AND owner = ?";
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setBytes(1, UuidBytes.toBytes(playerUUID));
+            statement.setString(2, plugin.getPluginConfig().getServerId());
+            statement.executeUpdate();
+        }
+    }
+
+    // インベントリの書き込み内容を決める。前回と同じ内容なら null
+    // 差分保存モードでは、基準となる内容が分かっていて差分が溜まりすぎていなければ差分だけを書き込む
+    // エンコード済みであればその結果を使う
+    private InventoryWrite prepareInventoryWrite(UUID playerUUID, PlayerState state, DirtyTracker tracker) throws IOException {
+        Config config = plugin.getPluginConfig();
+        if (!config.isInventoryDeltaMode()) {
+            byte[] raw = state.getEncodedInventory();
+            long fingerprint = DirtyTracker.fingerprint(raw);
+            if (tracker.isUnchanged(playerUUID, DirtyTracker.INVENTORY, fingerprint)) {
+                return null;
+            }
+            return new InventoryWrite(inventoryCodec.compress(raw), fingerprint, false, null, 0);
+        }
+
+        byte[][] slots = state.getEncodedInventorySlots();
+        long fingerprint = SlotDeltaCodec.fingerprint(slots);
+        if (tracker.isUnchanged(playerUUID, DirtyTracker.INVENTORY, fingerprint)) {
+            return null;
+        }
+
+        DirtyTracker.SlotBaseline baseline = tracker.getSlotBaseline(playerUUID);
+        if (baseline == null || baseline.getDeltaCount() >= config.getDeltaCompactAfter()) {
+            // 全体を書き直し、溜まった差分を削除する
+            byte[] raw = state.getEncodedInventory();
+            return new InventoryWrite(inventoryCodec.compress(raw), fingerprint, false, slots, 0);
+        }
+
+        byte[] delta = SlotDeltaCodec.encodeDelta(slots.length, SlotDeltaCodec.diff(baseline.getSlots(), slots));
+        return new InventoryWrite(inventoryCodec.compress(delta), fingerprint, true, slots, baseline.getDeltaCount() + 1);
+    }
+
+    // 同じ内容を全グループに書き込む。データはグループ数に関係なく1回だけ送信し、データベース側で各グループの行に展開する
+    private void writeInventoryBase(Connection connection, byte[] uuid, List<Integer> groupIds,
+                                    InventoryWrite write) throws SQLException {
+        executeForGroups(connection, "INSERT INTO inventory_data (uuid, group_id, inventory, fingerprint, delta_count) " +
+                        "SELECT ?, id, ?, ?, 0 " + fromGroups(groupIds.size()) +
+                        " ON DUPLICATE KEY UPDATE inventory = VALUES(inventory), fingerprint = VALUES(fingerprint), delta_count = 0",
+                groupIds, uuid, write.payload, write.fingerprint);
+
+        // 全体を書き直したので、それ以前の差分は不要
+        executeForGroups(connection, "DELETE FROM inventory_deltas WHERE uuid = ? AND group_id IN (" +
+                placeholders(groupIds.size()) + ")", groupIds, uuid);
+    }
+
+    private void appendInventoryDelta(Connection connection, byte[] uuid, List<Integer> groupIds,
+                                      InventoryWrite write) throws SQLException {
+        executeForGroups(connection, "INSERT INTO inventory_deltas (uuid, group_id, changes) " +
+                "SELECT ?, id, ? " + fromGroups(groupIds.size()), groupIds, uuid, write.payload);
+
+        executeForGroups(connection, "UPDATE inventory_data SET fingerprint = ?, delta_count = delta_count + 1 " +
+                "WHERE uuid = ? AND group_id IN (" + placeholders(groupIds.size()) + ")", groupIds, write.fingerprint, uuid);
+    }
+
+    private ItemStack[] applyInventoryDelta(ItemStack[] inventory, byte[] payload) throws IOException {
+        byte[] delta = inventoryCodec.decompress(new ByteArrayInputStream(payload));
+        return SlotDeltaCodec.applyDelta(inventory, delta);
+    }
+
+    // インベントリ1回分の書き込み内容（全体または差分）
+    private static class InventoryWrite {
+        private final byte[] payload;
+        private final long fingerprint;
+        private final boolean delta;
+        // 書き込み後のスロットごとの内容（差分保存モードのみ）
+        private final byte[][] slots;
+        private final int deltaCount;
+
+        private InventoryWrite(byte[] payload, long fingerprint, boolean delta, byte[][] slots, int deltaCount) {
+            this.payload = payload;
+            this.fingerprint = fingerprint;
+            this.delta = delta;
+            this.slots = slots;
+            this.deltaCount = deltaCount;
+        }
+    }
+
+    private void upsertPayload(Connection connection, String table, String column, byte[] uuid,
+                               List<Integer> groupIds, byte[] payload, long fingerprint) throws SQLException {
+        executeForGroups(connection, "INSERT INTO " + table + " (uuid, group_id, " + column + ", fingerprint) " +
+                        "SELECT ?, id, ?, ? " + fromGroups(groupIds.size()) +
+                        " ON DUPLICATE KEY UPDATE " + column + " = VALUES(" + column + "), fingerprint = VALUES(fingerprint)",
+                groupIds, uuid, payload, fingerprint);
+    }
+
+    // 書き込み先のグループを server_groups から選ぶ句（INSERT ... SELECT で1文のまま全グループに展開するため）
+    private static String fromGroups(int groups) {
+        return "FROM server_groups WHERE id IN (" + placeholders(groups) + ")";
+    }
+
+    // values を先頭から設定し、続けてグループIDを設定して実行する
+    private static void executeForGroups(Connection connection, String sql, List<Integer> groupIds,
+                                         Object... values) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (Object value : values) {
+                statement.setObject(index++, value);
+            }
+            for (int groupId : groupIds) {
+                statement.setInt(index++, groupId);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    // グループ名をIDに変換する。未登録のグループは別の接続で登録する（呼び出し側のトランザクションに含めないため）
+    private int groupId(String serverGroup) throws SQLException {
+        Integer id = groups.get(serverGroup);
+        if (id != null) {
+            return id;
+        }
+        try (Connection connection = getConnection()) {
+            return groups.getOrCreate(connection, serverGroup);
+        }
+    }
+
+    private static Long getNullableLong(ResultSet resultSet, String column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    private ItemStack[] decodeUnchecked(PayloadCodec codec, byte[] payload) {
+        try {
+            return codec.decode(new ByteArrayInputStream(payload));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public double loadEconomy(UUID playerUUID, String serverGroup) {
+        try {
+            if (!ensureConnection()) {
+                plugin.getLogger().log(Level.SEVERE, "データベース接続が確立できないため、経済データの読み込みに失敗しました。");
+                return 0.0;
+            }
+
+            String sql = "SELECT balance FROM economy_data WHERE uuid = ? AND group_id = ?";
+            int groupId = groupId(serverGroup);
+
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setBytes(1, UuidBytes.toBytes(playerUUID));
+                statement.setInt(2, groupId);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return resultSet.getDouble("balance");
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "経済データ読み込みエラー: " + e.getMessage(), e);
+        }
+
+        return 0.0;
     }
 }
\ No newline at end of file
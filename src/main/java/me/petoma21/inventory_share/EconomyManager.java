@@ -1,5 +1,6 @@
 package me.petoma21.inventory_share;
 
+import me.petoma21.inventory_share.storage.PlayerState;
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
 import org.bukkit.Bukkit;
@@ -76,11 +77,8 @@ public class EconomyManager {
             return;
         }
 
-        // 各グループに対して所持金を保存
-        for (String group : groups) {
-            plugin.getDatabaseManager().saveEconomy(playerUUID, group, balance);
-            plugin.getLogger().fine(playerUUID + " の所持金 " + balance + " をグループ " + group + " に保存しました。");
-        }
+        // 書き込みキュー経由で全グループに保存
+        plugin.getPlayerStateManager().savePlayerState(playerUUID, new PlayerState(null, null, balance));
     }
 
     public boolean loadPlayerBalance(Player player) {
@@ -118,12 +116,9 @@ public class EconomyManager {
             return null;
         }
 
-        // 最初のグループから所持金をロード（複数グループの場合は最初のグループが優先）
-        String primaryGroup = groups.get(0);
-        double balance = plugin.getDatabaseManager().loadEconomy(playerUUID, primaryGroup);
-
-//        plugin.getLogger().info(playerUUID + " の所持金 " + balance + " をグループ " + primaryGroup + " からロードしました。");
-        return balance;
+        // 複数グループの場合は読み込み方式 (storage.load-policy) に従う（保存されていなければ 0）
+        PlayerState state = plugin.getDatabaseManager().loadPlayerState(playerUUID, groups);
+        return state != null && state.getBalance() != null ? state.getBalance() : 0.0;
     }
 
     public boolean applyBalanceToPlayer(Player player, Object balanceData) {
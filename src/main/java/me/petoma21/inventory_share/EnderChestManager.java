@@ -1,5 +1,6 @@
 package me.petoma21.inventory_share;
 
+import me.petoma21.inventory_share.storage.PlayerState;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -16,8 +17,9 @@ public class EnderChestManager {
         this.plugin = plugin;
     }
 
+    // メインスレッドから呼び出すこと（内容を複製してから書き込みキューに渡す）
     public void savePlayerEnderChest(Player player) {
-        final ItemStack[] enderChestContents = player.getEnderChest().getContents();
+        final ItemStack[] enderChestContents = InventoryManager.copyContents(player.getEnderChest().getContents());
         final UUID playerUUID = player.getUniqueId();
 
         savePlayerEnderChestData(playerUUID, enderChestContents);
@@ -41,11 +43,8 @@ public class EnderChestManager {
             return;
         }
 
-        // 各グループに対してエンダーチェストを保存
-        for (String group : groups) {
-            plugin.getDatabaseManager().saveEnderChest(playerUUID, group, enderChestContents);
-            plugin.getLogger().fine(playerUUID + " のエンダーチェストをグループ " + group + " に保存しました。");
-        }
+        // 書き込みキュー経由で全グループに保存
+        plugin.getPlayerStateManager().savePlayerState(playerUUID, new PlayerState(null, enderChestContents, null));
     }
 
     public boolean loadPlayerEnderChest(Player player) {
@@ -75,17 +74,16 @@ public class EnderChestManager {
             return null;
         }
 
-        // 最初のグループからエンダーチェストをロード（複数グループの場合は最初のグループが優先）
-        String primaryGroup = groups.get(0);
-        ItemStack[] enderChestContents = plugin.getDatabaseManager().loadEnderChest(playerUUID, primaryGroup);
+        // 複数グループの場合は読み込み方式 (storage.load-policy) に従う
+        PlayerState state = plugin.getDatabaseManager().loadPlayerState(playerUUID, groups);
+        ItemStack[] enderChestContents = state != null ? state.getEnderChest() : null;
 
         if (enderChestContents == null) {
             // エンダーチェストが見つからなかった場合
-            plugin.getLogger().info(playerUUID + " のエンダーチェストデータがグループ " + primaryGroup + " に見つかりませんでした。");
+            plugin.getLogger().info(playerUUID + " のエンダーチェストデータがグループ " + groups + " に見つかりませんでした。");
             return null;
         }
 
-//        plugin.getLogger().info(playerUUID + " のエンダーチェストをグループ " + primaryGroup + " からロードしました。");
         return enderChestContents;
     }
 
@@ -1,5 +1,6 @@
 package me.petoma21.inventory_share;
 
+import me.petoma21.inventory_share.storage.PlayerState;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -18,11 +19,12 @@ public class InventoryManager {
         this.plugin = plugin;
     }
 
+    // メインスレッドから呼び出すこと（内容を複製してから書き込みキューに渡す）
     public void savePlayerInventory(Player player) {
         final UUID playerUUID = player.getUniqueId();
-        final ItemStack[] inventoryContents = player.getInventory().getContents();
-        final ItemStack[] armorContents = player.getInventory().getArmorContents();
-        final ItemStack offHandItem = player.getInventory().getItemInOffHand();
+        final ItemStack[] inventoryContents = copyContents(player.getInventory().getContents());
+        final ItemStack[] armorContents = copyContents(player.getInventory().getArmorContents());
+        final ItemStack offHandItem = player.getInventory().getItemInOffHand().clone();
 
         savePlayerInventoryData(playerUUID, inventoryContents, armorContents, offHandItem);
     }
@@ -38,12 +40,22 @@ public class InventoryManager {
             return;
         }
 
-        // 各グループに対してインベントリを保存
-        for (String group : groups) {
-            plugin.getDatabaseManager().saveInventory(playerUUID, group, inventoryContents);
-            plugin.getLogger().fine(playerUUID + " のインベントリをグループ " + group + " に保存しました。");
+        // 書き込みキュー経由で全グループに保存
+        plugin.getPlayerStateManager().savePlayerState(playerUUID, new PlayerState(inventoryContents, null, null));
+    }
 
+    // アイテムを1つずつ複製する
+    // getContents() が返すアイテムはサーバー内部のアイテムを直接参照している場合があり、配列の clone() だけでは
+    // 非同期スレッドでエンコードしている間にプレイヤーの操作で内容が変わってしまう
+    public static ItemStack[] copyContents(ItemStack[] contents) {
+        if (contents == null) {
+            return null;
+        }
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            copy[i] = contents[i] != null ? contents[i].clone() : null;
         }
+        return copy;
     }
 
     public boolean loadPlayerInventory(Player player) {
@@ -66,17 +78,16 @@ public class InventoryManager {
             return null;
         }
 
-        // 最初のグループからインベントリをロード（複数グループの場合は最初のグループが優先）
-        String primaryGroup = groups.get(0);
-        ItemStack[] inventoryContents = plugin.getDatabaseManager().loadInventory(playerUUID, primaryGroup);
+        // 複数グループの場合は読み込み方式 (storage.load-policy) に従う
+        PlayerState state = plugin.getDatabaseManager().loadPlayerState(playerUUID, groups);
+        ItemStack[] inventoryContents = state != null ? state.getInventory() : null;
 
         if (inventoryContents == null) {
             // インベントリが見つからなかった場合
-            plugin.getLogger().info(playerUUID + " のインベントリデータがグループ " + primaryGroup + " に見つかりませんでした。");
+            plugin.getLogger().info(playerUUID + " のインベントリデータがグループ " + groups + " に見つかりませんでした。");
             return null;
         }
 
-//        plugin.getLogger().info(playerUUID + " のインベントリをグループ " + primaryGroup + " からロードしました。");
         return inventoryContents;
     }
 
@@ -1,9 +1,29 @@
 package me.petoma21.inventory_share;
 
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
+import me.petoma21.inventory_share.commands.AdminCommand;
 import me.petoma21.inventory_share.commands.ReloadCommand;
 import me.petoma21.inventory_share.listeners.InventoryListener;
 import me.petoma21.inventory_share.listeners.PlayerListener;
+import me.petoma21.inventory_share.scheduler.TickBudgetQueue;
+import me.petoma21.inventory_share.storage.DirtyTracker;
+import me.petoma21.inventory_share.storage.PlayerSessionRegistry;
+import me.petoma21.inventory_share.storage.EncodeStage;
+import me.petoma21.inventory_share.storage.PlayerState;
+import me.petoma21.inventory_share.storage.PrefetchCache;
+import me.petoma21.inventory_share.storage.SaveJournal;
+import me.petoma21.inventory_share.storage.SnapshotCache;
+import me.petoma21.inventory_share.storage.StorageExecutor;
+import me.petoma21.inventory_share.storage.WriteBehindQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public class Inventory_Share extends JavaPlugin {
 
@@ -13,7 +33,19 @@ public class Inventory_Share extends JavaPlugin {
     private InventoryManager inventoryManager;
     private EnderChestManager enderChestManager;
     private EconomyManager economyManager;
+    private PlayerStateManager playerStateManager;
+    private WriteBehindQueue writeBehindQueue;
+    private EncodeStage encodeStage;
+    private final DirtyTracker dirtyTracker = new DirtyTracker();
+    private final PlayerSessionRegistry sessionRegistry = new PlayerSessionRegistry();
+    private PrefetchCache prefetchCache;
+    private SnapshotCache snapshotCache;
+    private SaveJournal saveJournal;
+    private StorageExecutor storageExecutor;
+    private TickBudgetQueue captureQueue;
+    private TickBudgetQueue applyQueue;
     private InventoryListener inventoryListener;
+    private PlayerListener playerListener;
 
     @Override
     public void onEnable() {
@@ -23,7 +55,6 @@ public class Inventory_Share extends JavaPlugin {
         // 設定ファイルを読み込む
         saveDefaultConfig();
         config = new Config(this);
-        getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
         // データベース接続
         databaseManager = new DatabaseManager(this);
         if (!databaseManager.connect()) {
@@ -36,32 +67,128 @@ public class Inventory_Share extends JavaPlugin {
         }
 
 
+        // データベースの読み書き用スレッドプール
+        storageExecutor = new StorageExecutor(getLogger(), config.getExecutorThreads(),
+                config.getExecutorQueueSize(), config.getExecutorSubmitTimeout(), config.isExecutorVirtualThreads());
+
         // 各マネージャーの初期化
         inventoryManager = new InventoryManager(this);
         enderChestManager = new EnderChestManager(this);
         economyManager = new EconomyManager(this);
+        playerStateManager = new PlayerStateManager(this);
+        prefetchCache = new PrefetchCache(getServerSpecificConfig("prefetch-ttl", 30000L));
+        snapshotCache = new SnapshotCache(config.getSnapshotCacheMaxBytes());
+
+        // 保存ジャーナルを開き、前回の停止時に反映できなかった保存データを再生する
+        if (config.isJournalEnabled()) {
+            saveJournal = new SaveJournal(new File(getDataFolder(), "journal"), getLogger(),
+                    config.getJournalSegmentBytes(), config.isJournalFsync());
+            try {
+                playerStateManager.recoverJournal(saveJournal.open());
+                saveJournal.start(playerStateManager::writeJournaledState, playerStateManager::onJournalDrained);
+            } catch (IOException e) {
+                getLogger().severe("保存ジャーナルを開けませんでした。ジャーナルを使用せずに続行します: " + e.getMessage());
+                saveJournal = null;
+            }
+        }
+
+        // 書き込みキューの開始
+        // まとめて書き込む前のエンコードは全コアで並列に行う
+        // 書き込みはストレージのスレッドで自動保存 (LOW) として実行し、待ち行列が混んでいる間は見送る
+        encodeStage = new EncodeStage(getLogger(), config.getWriteBehindEncodeThreads());
+        writeBehindQueue = new WriteBehindQueue(getLogger(), playerStateManager::writePlayerState,
+                states -> encodeStage.encodeAll(states, config.isInventoryDeltaMode()),
+                (playerUUID, task) -> storageExecutor.tryExecute(StorageExecutor.Priority.LOW, playerUUID, task),
+                config.getWriteBehindFlushInterval(), config.getWriteBehindBatchSize());
+        writeBehindQueue.start();
+
+        // セッションの所有期限を定期的に延長する（期限の1/3ごと）
+        long renewTicks = Math.max(20L, playerStateManager.getSessionLeaseMillis() / 3 / 50);
+        getServer().getScheduler().runTaskTimer(this,
+                () -> {
+                    // 待ち行列が一杯の場合は今回の延長を見送る（期限の1/3ごとに実行するため、次回までに期限は切れない）
+                    if (!storageExecutor.tryExecute(StorageExecutor.Priority.NORMAL, playerStateManager::renewSessions)) {
+                        getLogger().fine("ストレージの待ち行列が一杯のため、セッションの期限延長を見送りました");
+                    }
+                },
+                renewTicks, renewTicks);
+
+        // リロード等で既に参加しているプレイヤーのセッションを取得する
+        final List<UUID> onlinePlayers = new ArrayList<>();
+        for (Player player : getServer().getOnlinePlayers()) {
+            onlinePlayers.add(player.getUniqueId());
+        }
+        if (!onlinePlayers.isEmpty()) {
+            for (UUID playerUUID : onlinePlayers) {
+                playerStateManager.acquireSessionAsync(playerUUID, StorageExecutor.Priority.NORMAL, () -> false, () -> {
+                }, e -> getLogger().warning(playerUUID + " のセッションの取得に失敗しました: " + e.getMessage()));
+            }
+        }
+
+        // 自動保存でのインベントリの取得（メインスレッド、1tick あたりの処理時間に上限を設ける）
+        captureQueue = new TickBudgetQueue(this, "自動保存の取得", config.getAutoSaveCaptureBudget());
+        captureQueue.start();
+
+        // 参加時に読み込んだデータの適用（メインスレッド、1tick あたりの処理時間に上限を設ける）
+        applyQueue = new TickBudgetQueue(this, "参加時の適用", getServerSpecificConfig("apply-budget", 5.0));
+        applyQueue.start();
 
         inventoryListener = new InventoryListener(this);
         getServer().getPluginManager().registerEvents(inventoryListener, this);
 
         // イベントリスナーの登録
-        getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
-        getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        playerListener = new PlayerListener(this);
+        getServer().getPluginManager().registerEvents(playerListener, this);
         // コマンドの登録
         getCommand("isreload").setExecutor(new ReloadCommand(this));
+        AdminCommand adminCommand = new AdminCommand(this);
+        getCommand("isadmin").setExecutor(adminCommand);
+        getCommand("isadmin").setTabCompleter(adminCommand);
 
         getLogger().info("PetoInventoryShare プラグインが有効になりました。");
     }
 
     @Override
     public void onDisable() {
+        if (inventoryListener != null) {
+            inventoryListener.shutdown();
+        }
+        if (captureQueue != null) {
+            captureQueue.stop();
+        }
+        if (applyQueue != null) {
+            applyQueue.stop();
+        }
+        // オンラインのプレイヤーの最終データを取得する（停止中は退出時の保存が実行されないため）
+        Map<UUID, PlayerState> finalStates = playerListener != null
+                ? playerListener.captureOnlinePlayers() : Collections.<UUID, PlayerState>emptyMap();
+        // 実行待ちの読み書き（退出時の保存など）を終わらせる
+        if (storageExecutor != null) {
+            storageExecutor.shutdown(10000L);
+        }
+        // 取得した最終データをまとめて書き込み、セッションを解放する
+        if (playerStateManager != null) {
+            playerStateManager.flushOnShutdown(finalStates, config.getShutdownFlushTimeout(), config.getShutdownBatchSize());
+        }
+        // 書き込みキューに残っているデータを書き込む
+        if (writeBehindQueue != null) {
+            writeBehindQueue.shutdown(10000L);
+        }
+        if (encodeStage != null) {
+            encodeStage.shutdown();
+        }
+        // ジャーナルの反映を待つ（反映できなかったデータは次回起動時に再生する）
+        if (saveJournal != null) {
+            saveJournal.shutdown(10000L);
+        }
+        // 残っているセッションを解放し、他のサーバーが待たずに引き継げるようにする
+        if (playerStateManager != null) {
+            playerStateManager.releaseAllSessions();
+        }
         // データベース接続を閉じる
         if (databaseManager != null) {
             databaseManager.disconnect();
         }
-        if (inventoryListener != null) {
-            inventoryListener.shutdown();
-        }
         getLogger().info("PetoInventoryShare プラグインが無効になりました。");
     }
 
@@ -89,10 +216,72 @@ public class Inventory_Share extends JavaPlugin {
         return economyManager;
     }
 
+    public PlayerStateManager getPlayerStateManager() {
+        return playerStateManager;
+    }
+
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public EncodeStage getEncodeStage() {
+        return encodeStage;
+    }
+
+    public DirtyTracker getDirtyTracker() {
+        return dirtyTracker;
+    }
+
+    public PlayerSessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    public PrefetchCache getPrefetchCache() {
+        return prefetchCache;
+    }
+
+    public SnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    // 無効な場合は null
+    public SaveJournal getSaveJournal() {
+        return saveJournal;
+    }
+
+    public StorageExecutor getStorageExecutor() {
+        return storageExecutor;
+    }
+
+    public TickBudgetQueue getCaptureQueue() {
+        return captureQueue;
+    }
+
+    public TickBudgetQueue getApplyQueue() {
+        return applyQueue;
+    }
+
     public void reload() {
         // コンフィグをリロード
         reloadConfig();
         config.reload();
+        if (prefetchCache != null) {
+            prefetchCache.setTtlMillis(getServerSpecificConfig("prefetch-ttl", 30000L));
+        }
+        if (snapshotCache != null) {
+            snapshotCache.setMaxBytes(config.getSnapshotCacheMaxBytes());
+        }
+
+        // 自動保存の間隔を反映
+        if (inventoryListener != null) {
+            inventoryListener.startAutoSaveTask();
+        }
+        if (captureQueue != null) {
+            captureQueue.setBudgetMillis(config.getAutoSaveCaptureBudget());
+        }
+        if (applyQueue != null) {
+            applyQueue.setBudgetMillis(getServerSpecificConfig("apply-budget", 5.0));
+        }
 
         // 各マネージャーをリロード
         if (databaseManager != null) {
@@ -0,0 +1,540 @@
+package me.petoma21.inventory_share;
+
+import me.petoma21.inventory_share.serialization.SlotDeltaCodec;
+import me.petoma21.inventory_share.storage.DirtyTracker;
+import me.petoma21.inventory_share.storage.PlayerState;
+import me.petoma21.inventory_share.storage.SaveJournal;
+import me.petoma21.inventory_share.storage.SessionLease;
+import me.petoma21.inventory_share.storage.StorageExecutor;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+// インベントリ・エンダーチェスト・所持金をまとめて読み書きするマネージャー
+public class PlayerStateManager {
+
+    private final Inventory_Share plugin;
+
+    // このサーバーが所有しているセッション
+    private final Map<UUID, SessionLease> sessions = new ConcurrentHashMap<>();
+
+    // ジャーナルの反映が終わってからセッションを解放するプレイヤー
+    private final Set<UUID> releaseAfterDrain = ConcurrentHashMap.newKeySet();
+
+    public PlayerStateManager(Inventory_Share plugin) {
+        this.plugin = plugin;
+    }
+
+    public long getSessionLeaseMillis() {
+        return plugin.getServerSpecificConfig("session-lease", 30000L);
+    }
+
+    // 移動元のサーバーがセッションを解放する（退出時の保存が完了する）のを待って所有権を取得し、
+    // 取得後に onAcquired をこのプレイヤーのストレージのタスクとして実行する
+    // 待機中はストレージのスレッドを占有せず、間隔を空けて再試行を登録し直す（その間に他のタスクが実行される）
+    // 待機時間が handoff-timeout を超えた場合は強制的に引き継ぐ。cancelled が true になった場合（待機中に退出した等）は取得をやめる
+    public void acquireSessionAsync(UUID playerUUID, StorageExecutor.Priority priority, BooleanSupplier cancelled,
+                                    Runnable onAcquired, Consumer<Exception> onFailed) {
+        long timeout = plugin.getServerSpecificConfig("handoff-timeout", 10000L);
+        HandoffAttempt attempt = new HandoffAttempt(playerUUID, priority, cancelled, onAcquired, onFailed,
+                System.currentTimeMillis() + timeout, timeout);
+        // メインスレッドから呼ばれるため空きを待たず、待ち行列が一杯の場合はタイマーで登録し直す
+        if (!plugin.getStorageExecutor().tryExecute(priority, playerUUID, attempt)) {
+            plugin.getStorageExecutor().schedule(priority, playerUUID, 0L, attempt);
+        }
+    }
+
+    // セッションの取得を1回試みる。取得できなければ backoff 後に再登録する
+    private class HandoffAttempt implements Runnable {
+        private final UUID playerUUID;
+        private final StorageExecutor.Priority priority;
+        private final BooleanSupplier cancelled;
+        private final Runnable onAcquired;
+        private final Consumer<Exception> onFailed;
+        private final long deadline;
+        private final long timeout;
+        private long backoff = 25L;
+
+        private HandoffAttempt(UUID playerUUID, StorageExecutor.Priority priority, BooleanSupplier cancelled,
+                               Runnable onAcquired, Consumer<Exception> onFailed, long deadline, long timeout) {
+            this.playerUUID = playerUUID;
+            this.priority = priority;
+            this.cancelled = cancelled;
+            this.onAcquired = onAcquired;
+            this.onFailed = onFailed;
+            this.deadline = deadline;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            try {
+                if (!tryAcquire()) {
+                    long remaining = Math.max(1L, deadline - System.currentTimeMillis());
+                    plugin.getStorageExecutor().schedule(priority, playerUUID, Math.min(backoff, remaining), this);
+                    backoff = Math.min(backoff * 2, 1000L);
+                    return;
+                }
+            } catch (SQLException | RuntimeException e) {
+                onFailed.accept(e);
+                return;
+            }
+            onAcquired.run();
+        }
+
+        private boolean tryAcquire() throws SQLException {
+            List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+            if (groups.isEmpty()) {
+                return true;
+            }
+            boolean force = System.currentTimeMillis() >= deadline;
+
+            // このサーバーのジャーナルに未反映の保存データが残っている場合は、反映されるまで読み込まない
+            SaveJournal journal = plugin.getSaveJournal();
+            if (journal != null && journal.hasPending(playerUUID)) {
+                if (force) {
+                    throw new IllegalStateException("ジャーナルの保存データがデータベースに反映されていません");
+                }
+                return false;
+            }
+
+            Map<String, Long> versions = plugin.getDatabaseManager().acquireSession(playerUUID, groups,
+                    getSessionLeaseMillis(), force);
+            if (versions == null) {
+                return false;
+            }
+            if (force) {
+                plugin.getLogger().warning(playerUUID + " のセッションが " + timeout + "ms 以内に解放されなかったため、強制的に引き継ぎました。");
+            }
+            sessions.put(playerUUID, new SessionLease(versions));
+            return true;
+        }
+    }
+
+    // 最後の保存が完了した後に呼び出す。以降このプレイヤーの保存要求は破棄される
+    public void releaseSession(UUID playerUUID) {
+        SaveJournal journal = plugin.getSaveJournal();
+        if (journal != null) {
+            // ジャーナルに未反映のデータがあれば、反映後に解放する（どちらで解放するかは remove の結果で決める）
+            releaseAfterDrain.add(playerUUID);
+            if (journal.hasPending(playerUUID) || !releaseAfterDrain.remove(playerUUID)) {
+                return;
+            }
+        }
+        releaseSessionNow(playerUUID);
+    }
+
+    private void releaseSessionNow(UUID playerUUID) {
+        if (sessions.remove(playerUUID) == null) {
+            return;
+        }
+        try {
+            plugin.getDatabaseManager().releaseSession(playerUUID);
+        } catch (SQLException e) {
+            // 解放できなかった場合も、所有期限が切れれば他のサーバーが引き継げる
+            plugin.getLogger().log(Level.WARNING, playerUUID + " のセッションの解放に失敗しました: " + e.getMessage(), e);
+        }
+    }
+
+    // 所有しているセッションの期限を延長する（定期的に非同期で呼び出す）
+    public void renewSessions() {
+        try {
+            plugin.getDatabaseManager().renewSessions(new ArrayList<>(sessions.keySet()), getSessionLeaseMillis());
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "セッションの期限延長に失敗しました: " + e.getMessage(), e);
+        }
+    }
+
+    // プラグイン停止時に、残っているセッションをすべて解放する
+    // ジャーナルに未反映のデータが残っているプレイヤーは、次回起動時に再生できるよう所有したままにする
+    public void releaseAllSessions() {
+        SaveJournal journal = plugin.getSaveJournal();
+        for (UUID playerUUID : new ArrayList<>(sessions.keySet())) {
+            if (journal == null || !journal.hasPending(playerUUID)) {
+                releaseSessionNow(playerUUID);
+            }
+        }
+    }
+
+    // 起動時にジャーナルから再生するプレイヤーを登録する（反映後にセッションを解放する）
+    public void recoverJournal(Collection<UUID> playerUUIDs) {
+        releaseAfterDrain.addAll(playerUUIDs);
+    }
+
+    // ジャーナルの反映が終わったプレイヤーの、保留していたセッションの解放を行う（ジャーナルの反映スレッドから呼ばれる）
+    public void onJournalDrained(UUID playerUUID) {
+        if (releaseAfterDrain.remove(playerUUID)) {
+            releaseSessionNow(playerUUID);
+            plugin.getDirtyTracker().forget(playerUUID);
+        }
+    }
+
+    public boolean isEnderChestSyncEnabled() {
+        Config.ServerConfig serverConfig = plugin.getPluginConfig().getServerConfig(plugin.getPluginConfig().getServerId());
+        return plugin.getServerSpecificConfig("sync-enderchest", true) && serverConfig.isSyncEnderChest();
+    }
+
+    public boolean isEconomySyncEnabled() {
+        Config.ServerConfig serverConfig = plugin.getPluginConfig().getServerConfig(plugin.getPluginConfig().getServerId());
+        return plugin.getEconomyManager().isEconomyEnabled() && serverConfig.isSyncEconomy();
+    }
+
+    // このサーバーで同期が有効な項目だけを読み込む。グループに属していない場合は空の状態を返す
+    public PlayerState loadPlayerState(UUID playerUUID) {
+        PlayerState state = fetchPlayerState(playerUUID);
+        return state == null ? null : acceptLoadedState(playerUUID, state);
+    }
+
+    // 参加時の読み込み。セッション取得後に呼び出すこと
+    // 自サーバーのキャッシュ、先読みしたデータ、データベースの順に使い、最新であることは version で確認する
+    public PlayerState loadPlayerStateForJoin(UUID playerUUID, PlayerState prefetched) {
+        List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+        SessionLease lease = sessions.get(playerUUID);
+        if (groups.isEmpty() || lease == null) {
+            return loadPlayerState(playerUUID);
+        }
+
+        String primaryGroup = groups.get(0);
+        Long version = cacheVersion(lease, groups);
+        PlayerState cached = plugin.getSnapshotCache().get(playerUUID, primaryGroup, version);
+        if (cached != null) {
+            // このサーバーが最後に保存/読み込みした後、どのサーバーも保存していない
+            return acceptLoadedState(playerUUID, cached);
+        }
+
+        PlayerState state;
+        if (prefetched != null && isPlayerStateCurrent(playerUUID, prefetched)) {
+            // 先読み後にデータベースが更新されていなければ、先読みした内容をそのまま使う
+            state = prefetched;
+        } else {
+            state = fetchPlayerState(playerUUID);
+            if (state == null) {
+                return null;
+            }
+        }
+        if (version != null) {
+            plugin.getSnapshotCache().put(playerUUID, primaryGroup, version, state);
+        }
+        return acceptLoadedState(playerUUID, state);
+    }
+
+    // キャッシュの有効性を確認する version
+    // 全グループから読み込む場合は、どのグループで保存されても変わるよう全グループの version の合計を使う
+    private Long cacheVersion(SessionLease lease, List<String> groups) {
+        if (!plugin.getPluginConfig().isLoadNewest()) {
+            return lease.getVersion(groups.get(0));
+        }
+        long total = 0L;
+        for (String group : groups) {
+            Long version = lease.getVersion(group);
+            if (version == null) {
+                return null;
+            }
+            total += version;
+        }
+        return total;
+    }
+
+    // データベースから読み込むだけで、変更追跡には記録しない（ログイン前の先読み用）
+    // 適用する際は acceptLoadedState を通すこと
+    public PlayerState fetchPlayerState(UUID playerUUID) {
+        final String serverId = plugin.getPluginConfig().getServerId();
+        List<String> groups = plugin.getPluginConfig().getServerGroups(serverId);
+        if (groups.isEmpty()) {
+            plugin.getLogger().warning("サーバー " + serverId + " は共有グループに属していません。プレイヤーデータはロードされません。");
+            return new PlayerState(null, null, null);
+        }
+
+        // 複数グループの場合は読み込み方式 (storage.load-policy) に従う
+        return plugin.getDatabaseManager().loadPlayerState(playerUUID, groups);
+    }
+
+    // 読み込んだ内容をプレイヤーに適用する直前に呼び出す。同期が無効な項目を除いた状態を返す
+    public PlayerState acceptLoadedState(UUID playerUUID, PlayerState state) {
+        // 保存先が1グループのみ、または全グループから読み込んだ場合は、フィンガープリントが全グループの内容を表す
+        // （全グループで内容が一致しない項目のフィンガープリントは null になっている）
+        // 先頭のグループだけから読み込んだ場合は、他のグループの内容が異なる可能性があるため記録しない
+        List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+        if (groups.size() == 1 || plugin.getPluginConfig().isLoadNewest()) {
+            recordLoadedFingerprints(playerUUID, state);
+        }
+
+        return new PlayerState(
+                state.getInventory(),
+                isEnderChestSyncEnabled() ? state.getEnderChest() : null,
+                isEconomySyncEnabled() ? state.getBalance() : null
+        );
+    }
+
+    // 先読みした内容が、その後データベースで更新されていなければ true
+    public boolean isPlayerStateCurrent(UUID playerUUID, PlayerState state) {
+        List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+        if (groups.isEmpty()) {
+            return true;
+        }
+        if (state.getStamp() == null) {
+            return false;
+        }
+        return state.getStamp().equals(plugin.getDatabaseManager().loadPlayerStamp(playerUUID, groups));
+    }
+
+    // 書き込みキューに保存要求を登録する（同じプレイヤーの未書き込みデータとは項目ごとに統合される）
+    public boolean savePlayerState(UUID playerUUID, PlayerState state) {
+        if (!hasServerGroups()) {
+            return false;
+        }
+        plugin.getWriteBehindQueue().submit(playerUUID, state);
+        return true;
+    }
+
+    // 未書き込みデータと合わせて即座に書き込む（退出時用。非同期スレッドから呼び出すこと）
+    public boolean savePlayerStateNow(UUID playerUUID, PlayerState state) {
+        if (!hasServerGroups()) {
+            return false;
+        }
+        SaveJournal journal = plugin.getSaveJournal();
+        if (journal != null) {
+            // ローカルのジャーナルに記録した時点で完了とする。データベースへの反映とキャッシュはジャーナルの反映スレッドで行う
+            return plugin.getWriteBehindQueue().flushPlayer(playerUUID, state, journal::append);
+        }
+        boolean saved = plugin.getWriteBehindQueue().flushPlayer(playerUUID, state);
+        if (saved) {
+            cacheSavedState(playerUUID, state);
+        }
+        return saved;
+    }
+
+    // 保存した内容をキャッシュする（同じサーバーに再参加した場合に読み込みとデコードを省略するため）
+    private void cacheSavedState(UUID playerUUID, PlayerState state) {
+        List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+        SessionLease lease = sessions.get(playerUUID);
+        if (groups.isEmpty() || lease == null) {
+            return;
+        }
+        String primaryGroup = groups.get(0);
+        Long version = cacheVersion(lease, groups);
+        if (version == null) {
+            return;
+        }
+
+        // 再参加時に変更追跡へ記録できるよう、保存時のフィンガープリントも保持する
+        DirtyTracker tracker = plugin.getDirtyTracker();
+        DirtyTracker.SlotBaseline baseline = tracker.getSlotBaseline(playerUUID);
+        plugin.getSnapshotCache().put(playerUUID, primaryGroup, version, new PlayerState(
+                state.getInventory(),
+                isEnderChestSyncEnabled() ? state.getEnderChest() : null,
+                isEconomySyncEnabled() ? state.getBalance() : null,
+                tracker.getFingerprint(playerUUID, DirtyTracker.INVENTORY),
+                tracker.getFingerprint(playerUUID, DirtyTracker.ENDER_CHEST),
+                baseline != null ? baseline.getDeltaCount() : 0,
+                null
+        ).reuseEncodings(state));
+    }
+
+    // このサーバーが属する全グループに、有効な項目を1トランザクションで保存する（書き込みキューから呼ばれる）
+    public boolean writePlayerState(UUID playerUUID, PlayerState state) {
+        final String serverId = plugin.getPluginConfig().getServerId();
+        List<String> groups = plugin.getPluginConfig().getServerGroups(serverId);
+        if (groups.isEmpty()) {
+            // 設定変更でグループから外れた場合は書き込む先がないため、再試行しない
+            return true;
+        }
+
+        PlayerState filtered = filterSyncedItems(state);
+
+        SessionLease lease = sessions.get(playerUUID);
+        if (lease == null) {
+            // 退出してセッションを解放した後に届いた保存要求は書き込まない
+            plugin.getLogger().fine(playerUUID + " のセッションを所有していないため、保存要求を破棄しました。");
+            return true;
+        }
+
+        SaveJournal journal = plugin.getSaveJournal();
+        if (journal != null && journal.hasPending(playerUUID)) {
+            // ジャーナルの未反映データより先に書き込むと順序が逆転するため、ジャーナルの後ろに追加する
+            return journal.append(playerUUID, filtered);
+        }
+
+        boolean saved = saveToDatabase(playerUUID, groups, filtered, lease);
+        if (!saved && journal != null) {
+            // 書き込めなかったデータはジャーナルに記録し、データベースが復旧してから反映する
+            return journal.append(playerUUID, filtered);
+        }
+        return saved;
+    }
+
+    // サーバー停止時に、オンラインのプレイヤーの最終データをまとめて保存し、セッションを解放する（メインスレッドから呼ばれる）
+    // 停止中は退出時の保存が実行されないため、ここで保存する。未書き込みの自動保存データも統合する
+    // 書き込みは別のスレッドで行い、timeoutMillis を超えた分は待たない（ジャーナルが有効なら次回起動時に反映する）
+    public void flushOnShutdown(Map<UUID, PlayerState> finalStates, long timeoutMillis, int batchSize) {
+        List<String> groups = plugin.getPluginConfig().getServerGroups(plugin.getPluginConfig().getServerId());
+        if (groups.isEmpty() || finalStates.isEmpty()) {
+            return;
+        }
+
+        SaveJournal journal = plugin.getSaveJournal();
+        Map<UUID, PlayerState> states = new LinkedHashMap<>();
+        Map<UUID, SessionLease> leases = new HashMap<>();
+        for (Map.Entry<UUID, PlayerState> entry : finalStates.entrySet()) {
+            UUID playerUUID = entry.getKey();
+            SessionLease lease = sessions.get(playerUUID);
+            if (lease == null) {
+                // セッションを所有していない（参加時の取得に失敗した等）
+                continue;
+            }
+            PlayerState state = filterSyncedItems(plugin.getWriteBehindQueue().takePlayer(playerUUID, entry.getValue()));
+            if (journal != null && journal.hasPending(playerUUID)) {
+                // ジャーナルの未反映データより先に書き込むと順序が逆転するため、ジャーナルの後ろに追加する
+                journal.append(playerUUID, state);
+                continue;
+            }
+            states.put(playerUUID, state);
+            leases.put(playerUUID, lease);
+        }
+        if (states.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        plugin.getEncodeStage().encodeAll(states.values(), plugin.getPluginConfig().isInventoryDeltaMode());
+
+        Set<UUID> done = ConcurrentHashMap.newKeySet();
+        Thread thread = new Thread(() -> plugin.getDatabaseManager().savePlayerStatesBulk(states, groups, leases, batchSize, done),
+                "AIS-Shutdown-Flush");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int failed = 0;
+        for (Map.Entry<UUID, PlayerState> entry : states.entrySet()) {
+            UUID playerUUID = entry.getKey();
+            if (done.contains(playerUUID)) {
+                // セッションは保存と同じトランザクションで解放済み
+                sessions.remove(playerUUID);
+                plugin.getDirtyTracker().forget(playerUUID);
+                continue;
+            }
+            failed++;
+            if (journal != null) {
+                // 時間内にコミットされた場合も、セッションが解放済みのため再生時に破棄される
+                journal.append(playerUUID, entry.getValue());
+            }
+        }
+
+        plugin.getLogger().info("停止時の一括保存: " + (states.size() - failed) + "/" + states.size() + " 人のデータを " +
+                (System.currentTimeMillis() - start) + "ms で保存しました。");
+        if (failed > 0) {
+            plugin.getLogger().warning(journal != null
+                    ? failed + " 人のデータは時間内に保存できなかったため、ジャーナルに記録しました。次回起動時に反映します。"
+                    : failed + " 人のデータを時間内に保存できませんでした。");
+        }
+    }
+
+    // ジャーナルに記録されたデータをデータベースに反映する（ジャーナルの反映スレッドから呼ばれる）
+    public boolean writeJournaledState(UUID playerUUID, PlayerState state) {
+        final String serverId = plugin.getPluginConfig().getServerId();
+        List<String> groups = plugin.getPluginConfig().getServerGroups(serverId);
+        if (groups.isEmpty()) {
+            return true;
+        }
+
+        SessionLease lease = sessions.get(playerUUID);
+        if (lease == null) {
+            // 再起動前の記録。その後どのサーバーもセッションを引き継いでいなければ再取得して書き込む
+            Map<String, Long> versions;
+            try {
+                versions = plugin.getDatabaseManager().resumeSession(playerUUID, groups, getSessionLeaseMillis());
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, playerUUID + " のセッションの再取得に失敗しました: " + e.getMessage(), e);
+                return false;
+            }
+            if (versions == null) {
+                plugin.getLogger().warning(playerUUID + " のセッションは他のサーバーに引き継がれているため、ジャーナルの保存データを破棄しました。");
+                return true;
+            }
+            lease = new SessionLease(versions);
+            SessionLease existing = sessions.putIfAbsent(playerUUID, lease);
+            if (existing != null) {
+                lease = existing;
+            }
+        }
+
+        if (!saveToDatabase(playerUUID, groups, state, lease)) {
+            return false;
+        }
+        cacheSavedState(playerUUID, state);
+        return true;
+    }
+
+    // このサーバーで同期が無効な項目を除く
+    private PlayerState filterSyncedItems(PlayerState state) {
+        return new PlayerState(
+                state.getInventory(),
+                isEnderChestSyncEnabled() ? state.getEnderChest() : null,
+                isEconomySyncEnabled() ? state.getBalance() : null
+        ).reuseEncodings(state);
+    }
+
+    private boolean saveToDatabase(UUID playerUUID, List<String> groups, PlayerState state, SessionLease lease) {
+        boolean saved = plugin.getDatabaseManager().savePlayerState(playerUUID, groups, state, lease);
+        if (saved) {
+            plugin.getLogger().fine(playerUUID + " のプレイヤーデータをグループ " + groups + " に保存しました。");
+        }
+        return saved;
+    }
+
+    private void recordLoadedFingerprints(UUID playerUUID, PlayerState state) {
+        DirtyTracker tracker = plugin.getDirtyTracker();
+        if (state.getInventoryFingerprint() != null) {
+            tracker.recordFingerprint(playerUUID, DirtyTracker.INVENTORY, state.getInventoryFingerprint());
+        } else {
+            tracker.forgetFingerprint(playerUUID, DirtyTracker.INVENTORY);
+        }
+        if (state.getEnderChestFingerprint() != null) {
+            tracker.recordFingerprint(playerUUID, DirtyTracker.ENDER_CHEST, state.getEnderChestFingerprint());
+        } else {
+            tracker.forgetFingerprint(playerUUID, DirtyTracker.ENDER_CHEST);
+        }
+
+        // 差分保存モードでは、読み込んだ内容を次回の差分の基準にする
+        // 保存先の全グループの内容が一致しない場合（フィンガープリントが null）は基準にせず、最初の保存で全体を書き直す
+        tracker.forgetSlotBaseline(playerUUID);
+        if (plugin.getPluginConfig().isInventoryDeltaMode() && state.getInventory() != null
+                && state.getInventoryFingerprint() != null) {
+            try {
+                tracker.recordSlotBaseline(playerUUID, SlotDeltaCodec.encodeSlots(state.getInventory()),
+                        state.getInventoryDeltaCount());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "差分の基準データの作成に失敗しました: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean hasServerGroups() {
+        final String serverId = plugin.getPluginConfig().getServerId();
+        if (plugin.getPluginConfig().getServerGroups(serverId).isEmpty()) {
+            plugin.getLogger().warning("サーバー " + serverId + " は共有グループに属していません。プレイヤーデータは保存されません。");
+            return false;
+        }
+        return true;
+    }
+}
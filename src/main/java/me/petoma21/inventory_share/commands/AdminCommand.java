@@ -0,0 +1,148 @@
+package me.petoma21.inventory_share.commands;
+
+import me.petoma21.inventory_share.Inventory_Share;
+import me.petoma21.inventory_share.serialization.DictionaryTrainer;
+import me.petoma21.inventory_share.storage.StorageExecutor;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+public class AdminCommand implements CommandExecutor, TabCompleter {
+
+    private static final int DEFAULT_SAMPLES = 500;
+
+    private final Inventory_Share plugin;
+
+    public AdminCommand(Inventory_Share plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission("inventoryshare.admin")) {
+            sender.sendMessage(ChatColor.RED + "このコマンドを実行する権限がありません。");
+            return true;
+        }
+
+        if (args.length == 0) {
+            sendUsage(sender, label);
+            return true;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "stats":
+                sendStats(sender);
+                return true;
+            case "dict":
+                handleDictionary(sender, label, args);
+                return true;
+            default:
+                sendUsage(sender, label);
+                return true;
+        }
+    }
+
+    private void sendStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.GREEN + "[AIS] ステータス");
+        sender.sendMessage(ChatColor.GRAY + "  データベース: " + ChatColor.WHITE + plugin.getDatabaseManager().getDbType());
+        sender.sendMessage(ChatColor.GRAY + "  接続状態: " + ChatColor.WHITE + plugin.getDatabaseManager().getHealthStats());
+        sender.sendMessage(ChatColor.GRAY + "  コネクションプール: " + ChatColor.WHITE + plugin.getDatabaseManager().getPoolStats());
+        sender.sendMessage(ChatColor.GRAY + "  まとめ読み込み: " + ChatColor.WHITE + plugin.getDatabaseManager().getLoadBatchStats());
+        sender.sendMessage(ChatColor.GRAY + "  ストレージスレッド: " + ChatColor.WHITE + plugin.getStorageExecutor().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  同期の段階: " + ChatColor.WHITE + plugin.getSessionRegistry().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  参加時の適用: " + ChatColor.WHITE + plugin.getApplyQueue().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  自動保存の取得: " + ChatColor.WHITE + plugin.getCaptureQueue().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  書き込みキュー: " + ChatColor.WHITE + plugin.getWriteBehindQueue().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  並列エンコード: " + ChatColor.WHITE + plugin.getEncodeStage().getStats());
+        if (plugin.getSaveJournal() != null) {
+            sender.sendMessage(ChatColor.GRAY + "  ジャーナル: " + ChatColor.WHITE + plugin.getSaveJournal().getStats());
+        }
+        sender.sendMessage(ChatColor.GRAY + "  スナップショットキャッシュ: " + ChatColor.WHITE + plugin.getSnapshotCache().getStats());
+        sender.sendMessage(ChatColor.GRAY + "  未保存の変更: " + ChatColor.WHITE + plugin.getDirtyTracker().getDirtyCount() + " 人");
+    }
+
+    private void handleDictionary(CommandSender sender, String label, String[] args) {
+        if (args.length < 3 || !"train".equalsIgnoreCase(args[1])) {
+            sender.sendMessage(ChatColor.YELLOW + "使い方: /" + label + " dict train <inventory|enderchest> [サンプル数]");
+            return;
+        }
+
+        final String dataType = args[2].toLowerCase();
+        if (!dataType.equals("inventory") && !dataType.equals("enderchest")) {
+            sender.sendMessage(ChatColor.RED + "データ種別は inventory または enderchest を指定してください。");
+            return;
+        }
+
+        int samples = DEFAULT_SAMPLES;
+        if (args.length >= 4) {
+            try {
+                samples = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(ChatColor.RED + "サンプル数は数値で指定してください: " + args[3]);
+                return;
+            }
+        }
+
+        final int sampleLimit = Math.max(2, samples);
+        sender.sendMessage(ChatColor.GREEN + "[AIS] " + dataType + " の圧縮辞書を学習しています...");
+
+        // 学習は重いため非同期で実行
+        try {
+            plugin.getStorageExecutor().execute(StorageExecutor.Priority.LOW, () -> {
+                try {
+                    int id = plugin.getDatabaseManager().trainDictionary(dataType, sampleLimit, DictionaryTrainer.MAX_DICTIONARY_SIZE);
+                    plugin.getServer().getScheduler().runTask(plugin, () ->
+                            sender.sendMessage(ChatColor.GREEN + "[AIS] 圧縮辞書 #" + id + " を作成しました。以降の保存で使用されます。"));
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.WARNING, "圧縮辞書の学習に失敗しました: " + e.getMessage(), e);
+                    plugin.getServer().getScheduler().runTask(plugin, () ->
+                            sender.sendMessage(ChatColor.RED + "[AIS] 圧縮辞書の学習に失敗しました: " + e.getMessage()));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sender.sendMessage(ChatColor.RED + "[AIS] データベースの処理が混雑しています。しばらくしてから再実行してください。");
+        }
+    }
+
+    private void sendUsage(CommandSender sender, String label) {
+        sender.sendMessage(ChatColor.YELLOW + "使い方:");
+        sender.sendMessage(ChatColor.YELLOW + "  /" + label + " stats");
+        sender.sendMessage(ChatColor.YELLOW + "  /" + label + " dict train <inventory|enderchest> [サンプル数]");
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission("inventoryshare.admin")) {
+            return Collections.emptyList();
+        }
+        if (args.length == 1) {
+            return filter(Arrays.asList("stats", "dict"), args[0]);
+        }
+        if (args.length == 2 && "dict".equalsIgnoreCase(args[0])) {
+            return filter(Collections.singletonList("train"), args[1]);
+        }
+        if (args.length == 3 && "dict".equalsIgnoreCase(args[0])) {
+            return filter(Arrays.asList("inventory", "enderchest"), args[2]);
+        }
+        return Collections.emptyList();
+    }
+
+    private List<String> filter(List<String> options, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String option : options) {
+            if (option.startsWith(prefix.toLowerCase())) {
+                result.add(option);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,494 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+// v2: 主キーを uuid BINARY(16) と group_id SMALLINT（server_groups テーブルのID）に変更する
+// 新しいテーブルを作成して少しずつコピーし、コピー中に更新された行を反映してから入れ替える
+// コピー中は元のテーブルに長いロックを掛けないため、旧バージョンのサーバーが動作していても読み書きできる
+// 最後の反映と入れ替えの間だけ書き込みロックを掛け、その間の書き込みは入れ替えの後まで待たせる
+// 元のテーブルは *_legacy として残す（空の場合は削除する）
+public class BinaryKeyMigration implements SchemaMigrator.Migration {
+
+    private static final int VERSION = 2;
+    private static final int BATCH_SIZE = 500;
+    // ロックを掛けずに反映を繰り返す最大回数。更新が続く場合は残りをロック中の反映に任せる
+    private static final int MAX_CATCHUP_PASSES = 5;
+    private static final String LEGACY_SUFFIX = "_legacy";
+    private static final String NEW_SUFFIX = "_new";
+
+    // (uuid, server_group) が主キーのテーブルと、コピーする列
+    private static final List<KeyedTable> KEYED_TABLES = Arrays.asList(
+            new KeyedTable("inventory_data", "inventory", "fingerprint", "delta_count", "last_updated"),
+            new KeyedTable("enderchest_data", "enderchest", "fingerprint", "last_updated"),
+            new KeyedTable("economy_data", "balance", "last_updated")
+    );
+
+    private final GroupRegistry groups;
+
+    public BinaryKeyMigration(GroupRegistry groups) {
+        this.groups = groups;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public String getDescription() {
+        return "binary uuid keys and integer group ids";
+    }
+
+    @Override
+    public void migrate(Connection connection, SchemaMigrator migrator) throws SQLException {
+        Logger logger = migrator.getLogger();
+
+        // 入れ替えの途中で停止していた場合は、残りのテーブルを入れ替える
+        if ("started".equals(migrator.getProgress(connection, VERSION, "swap"))) {
+            finishSwap(connection);
+            dropEmptyLegacyTables(connection, logger);
+            return;
+        }
+
+        // 入れ替えまで完了した後に停止していた場合
+        if (!SchemaMigrator.tableExists(connection, "inventory_data" + NEW_SUFFIX)
+                && SchemaMigrator.tableExists(connection, "inventory_data" + LEGACY_SUFFIX)) {
+            dropEmptyLegacyTables(connection, logger);
+            return;
+        }
+
+        createTables(connection, migrator.getEngineClause());
+        groups.load(connection);
+
+        // コピー開始時刻。コピー中に更新された行は最後にもう一度コピーする
+        String startedAt = migrator.getProgress(connection, VERSION, "started_at");
+        if (startedAt == null) {
+            startedAt = currentTimestamp(connection);
+            migrator.saveProgress(connection, VERSION, "started_at", startedAt);
+        }
+
+        for (KeyedTable table : KEYED_TABLES) {
+            copyKeyedTable(connection, migrator, table, null, null);
+        }
+        copyDeltas(connection, migrator);
+
+        // コピー中に更新された行を反映する。1回の反映中にも更新されるため、何もコピーしなくなるまで繰り返す
+        // 反映したインベントリの (uuid, server_group) は、最後に差分の削除を反映するために記録する
+        // （再開時も started_at 以降の行をすべて反映し直すため、この記録は保存しなくてよい）
+        Set<String> recopied = new HashSet<>();
+        String since = startedAt;
+        for (int pass = 1; pass <= MAX_CATCHUP_PASSES; pass++) {
+            String passStartedAt = currentTimestamp(connection);
+            long copied = 0;
+            for (KeyedTable table : KEYED_TABLES) {
+                copied += copyKeyedTable(connection, migrator, table, since, recopied);
+            }
+            copied += copyDeltas(connection, migrator);
+            since = passStartedAt;
+            if (copied == 0) {
+                break;
+            }
+        }
+
+        // 最後の反映と入れ替えは書き込みロックを掛けて行い、その間の旧バージョンのサーバーの書き込みを待たせる
+        // RENAME TABLE は LOCK TABLES 中に使えないため、テーブルごとに ALTER TABLE ... RENAME で入れ替える
+        lockTables(connection);
+        try {
+            for (KeyedTable table : KEYED_TABLES) {
+                copyKeyedTable(connection, migrator, table, since, recopied);
+            }
+            copyDeltas(connection, migrator);
+            pruneDeltas(connection, recopied);
+            migrator.saveProgress(connection, VERSION, "swap", "started");
+            finishSwap(connection);
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UNLOCK TABLES");
+            }
+        }
+        logger.info("新しいテーブルへの入れ替えが完了しました");
+
+        dropEmptyLegacyTables(connection, logger);
+    }
+
+    private void createTables(Connection connection, String engineClause) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // グループ名とIDの対応表
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS server_groups (" +
+                            "id SMALLINT UNSIGNED NOT NULL AUTO_INCREMENT, " +
+                            "name VARCHAR(64) NOT NULL, " +
+                            "PRIMARY KEY (id), " +
+                            "UNIQUE KEY uk_server_groups_name (name)" +
+                            ")" + engineClause
+            );
+
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS inventory_data" + NEW_SUFFIX + " (" +
+                            "uuid BINARY(16) NOT NULL, " +
+                            "group_id SMALLINT UNSIGNED NOT NULL, " +
+                            "inventory LONGBLOB, " +
+                            "fingerprint BIGINT NULL, " +
+                            "delta_count INT NOT NULL DEFAULT 0, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, group_id)" +
+                            ")" + engineClause
+            );
+
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS enderchest_data" + NEW_SUFFIX + " (" +
+                            "uuid BINARY(16) NOT NULL, " +
+                            "group_id SMALLINT UNSIGNED NOT NULL, " +
+                            "enderchest LONGBLOB, " +
+                            "fingerprint BIGINT NULL, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, group_id)" +
+                            ")" + engineClause
+            );
+
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS economy_data" + NEW_SUFFIX + " (" +
+                            "uuid BINARY(16) NOT NULL, " +
+                            "group_id SMALLINT UNSIGNED NOT NULL, " +
+                            "balance DECIMAL(16,2) DEFAULT 0, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, group_id)" +
+                            ")" + engineClause
+            );
+
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS inventory_deltas" + NEW_SUFFIX + " (" +
+                            "id BIGINT NOT NULL AUTO_INCREMENT, " +
+                            "uuid BINARY(16) NOT NULL, " +
+                            "group_id SMALLINT UNSIGNED NOT NULL, " +
+                            "changes LONGBLOB NOT NULL, " +
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (id), " +
+                            "INDEX idx_inventory_deltas_player (uuid, group_id, id)" +
+                            ")" + engineClause
+            );
+        }
+    }
+
+    // 主キー順に BATCH_SIZE 行ずつコピーし、コピーした行数を返す
+    // since を指定した場合はその時刻以降に更新された行だけを対象にし、再開位置は保存しない（再開時は最初から反映し直す）
+    // 各バッチの書き込みと再開位置は同じトランザクションでコミットする
+    private long copyKeyedTable(Connection connection, SchemaMigrator migrator, KeyedTable table,
+                                String since, Set<String> recopied) throws SQLException {
+        String step = since == null ? "copy:" + table.name : null;
+        String cursor = step != null ? migrator.getProgress(connection, VERSION, step) : null;
+        if ("done".equals(cursor)) {
+            return 0;
+        }
+
+        // 旧バージョンで作成されたテーブルには存在しない列がある（新しいテーブルの既定値を使う）
+        List<String> columns = new ArrayList<>();
+        for (String column : table.columns) {
+            if (SchemaMigrator.getColumnType(connection, table.name, column) != null) {
+                columns.add(column);
+            }
+        }
+        if (since != null && !columns.contains("last_updated")) {
+            return 0;
+        }
+
+        String columnList = String.join(", ", columns);
+        String select = "SELECT uuid, server_group, " + columnList + " FROM " + table.name +
+                " WHERE (uuid > ? OR (uuid = ? AND server_group > ?))" +
+                (since != null ? " AND last_updated >= ?" : "") +
+                " ORDER BY uuid, server_group LIMIT " + BATCH_SIZE;
+
+        StringBuilder insert = new StringBuilder("INSERT INTO " + table.name + NEW_SUFFIX +
+                " (uuid, group_id, " + columnList + ") VALUES (?, ?");
+        for (int i = 0; i < columns.size(); i++) {
+            insert.append(", ?");
+        }
+        insert.append(") ON DUPLICATE KEY UPDATE ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                insert.append(", ");
+            }
+            insert.append(columns.get(i)).append(" = VALUES(").append(columns.get(i)).append(")");
+        }
+
+        String lastUuid = "";
+        String lastGroup = "";
+        if (cursor != null) {
+            int separator = cursor.indexOf('/');
+            lastUuid = cursor.substring(0, separator);
+            lastGroup = cursor.substring(separator + 1);
+        }
+
+        long copied = 0;
+        while (true) {
+            List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                statement.setString(1, lastUuid);
+                statement.setString(2, lastUuid);
+                statement.setString(3, lastGroup);
+                if (since != null) {
+                    statement.setString(4, since);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Object[] row = new Object[columns.size() + 2];
+                        row[0] = resultSet.getString("uuid");
+                        row[1] = resultSet.getString("server_group");
+                        for (int i = 0; i < columns.size(); i++) {
+                            row[i + 2] = resultSet.getObject(columns.get(i));
+                        }
+                        rows.add(row);
+                    }
+                }
+            }
+
+            if (rows.isEmpty()) {
+                if (step != null) {
+                    migrator.saveProgress(connection, VERSION, step, "done");
+                }
+                break;
+            }
+
+            // グループIDの登録はバッチのトランザクションの外で行う
+            for (Object[] row : rows) {
+                groups.getOrCreate(connection, (String) row[1]);
+            }
+
+            Object[] last = rows.get(rows.size() - 1);
+            lastUuid = (String) last[0];
+            lastGroup = (String) last[1];
+
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement statement = connection.prepareStatement(insert.toString())) {
+                    for (Object[] row : rows) {
+                        UUID uuid = parseUuid((String) row[0], table.name, migrator.getLogger());
+                        if (uuid == null) {
+                            continue;
+                        }
+                        statement.setBytes(1, UuidBytes.toBytes(uuid));
+                        statement.setInt(2, groups.get((String) row[1]));
+                        for (int i = 0; i < columns.size(); i++) {
+                            statement.setObject(i + 3, row[i + 2]);
+                        }
+                        statement.addBatch();
+                        if (recopied != null && since != null && table.name.equals("inventory_data")) {
+                            recopied.add(row[0] + "/" + row[1]);
+                        }
+                    }
+                    statement.executeBatch();
+                }
+                if (step != null) {
+                    migrator.saveProgress(connection, VERSION, step, lastUuid + "/" + lastGroup);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            copied += rows.size();
+            if (copied % (BATCH_SIZE * 20) == 0) {
+                migrator.getLogger().info(table.name + ": " + copied + " 行をコピーしました");
+            }
+        }
+
+        if (copied > 0) {
+            migrator.getLogger().info(table.name + " のコピーが完了しました (" + copied + " 行" +
+                    (since != null ? ", 差分" : "") + ")");
+        }
+        return copied;
+    }
+
+    // 差分の追加は id 順の追記のため、id 順にコピーし、コピーした行数を返す
+    // 2回目以降の呼び出しではコピー中に追加された行だけがコピーされる（コピー後の削除は pruneDeltas で反映する）
+    private long copyDeltas(Connection connection, SchemaMigrator migrator) throws SQLException {
+        String cursor = migrator.getProgress(connection, VERSION, "copy:inventory_deltas");
+        long lastId = cursor == null ? 0L : Long.parseLong(cursor);
+
+        String select = "SELECT id, uuid, server_group, changes, created_at FROM inventory_deltas " +
+                "WHERE id > ? ORDER BY id LIMIT " + BATCH_SIZE;
+        String insert = "INSERT IGNORE INTO inventory_deltas" + NEW_SUFFIX +
+                " (id, uuid, group_id, changes, created_at) VALUES (?, ?, ?, ?, ?)";
+
+        long copied = 0;
+        while (true) {
+            List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                statement.setLong(1, lastId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows.add(new Object[]{
+                                resultSet.getLong("id"),
+                                resultSet.getString("uuid"),
+                                resultSet.getString("server_group"),
+                                resultSet.getBytes("changes"),
+                                resultSet.getObject("created_at")
+                        });
+                    }
+                }
+            }
+
+            if (rows.isEmpty()) {
+                return copied;
+            }
+
+            for (Object[] row : rows) {
+                groups.getOrCreate(connection, (String) row[2]);
+            }
+            lastId = (Long) rows.get(rows.size() - 1)[0];
+
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                    for (Object[] row : rows) {
+                        UUID uuid = parseUuid((String) row[1], "inventory_deltas", migrator.getLogger());
+                        if (uuid == null) {
+                            continue;
+                        }
+                        statement.setLong(1, (Long) row[0]);
+                        statement.setBytes(2, UuidBytes.toBytes(uuid));
+                        statement.setInt(3, groups.get((String) row[2]));
+                        statement.setBytes(4, (byte[]) row[3]);
+                        statement.setObject(5, row[4]);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                migrator.saveProgress(connection, VERSION, "copy:inventory_deltas", Long.toString(lastId));
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            copied += rows.size();
+        }
+    }
+
+    // 圧縮によって元のテーブルから削除された差分を、新しいテーブルからも削除する
+    // 圧縮ではインベントリの行も更新されるため、反映し直したプレイヤー・グループだけを確認すればよい
+    // （残すと新しいテーブルで圧縮後のインベントリに古い差分が重ねて適用される）
+    private void pruneDeltas(Connection connection, Set<String> recopied) throws SQLException {
+        String delete = "DELETE FROM inventory_deltas" + NEW_SUFFIX + " WHERE uuid = ? AND group_id = ? " +
+                "AND id NOT IN (SELECT id FROM inventory_deltas WHERE uuid = ? AND server_group = ?)";
+        try (PreparedStatement statement = connection.prepareStatement(delete)) {
+            int pending = 0;
+            for (String key : recopied) {
+                int separator = key.indexOf('/');
+                String uuid = key.substring(0, separator);
+                String group = key.substring(separator + 1);
+                statement.setBytes(1, UuidBytes.toBytes(UUID.fromString(uuid)));
+                statement.setInt(2, groups.get(group));
+                statement.setString(3, uuid);
+                statement.setString(4, group);
+                statement.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    statement.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+        }
+    }
+
+    // ロック中は指定したテーブルしか使えないため、コピーで使うテーブルをすべて指定する
+    private void lockTables(Connection connection) throws SQLException {
+        StringBuilder lock = new StringBuilder("LOCK TABLES server_groups WRITE, schema_migration_progress WRITE");
+        for (String name : tableNames()) {
+            lock.append(", ").append(name).append(" WRITE, ").append(name).append(NEW_SUFFIX).append(" WRITE");
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(lock.toString());
+        }
+    }
+
+    // テーブルごとに 元 → *_legacy、*_new → 元 の順に名前を変える
+    // 途中で停止した場合も、再開時にまだ *_new が残っているテーブルから続けられる
+    private void finishSwap(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String name : tableNames()) {
+                if (!SchemaMigrator.tableExists(connection, name + NEW_SUFFIX)) {
+                    continue;
+                }
+                if (!SchemaMigrator.tableExists(connection, name + LEGACY_SUFFIX)) {
+                    statement.executeUpdate("ALTER TABLE " + name + " RENAME TO " + name + LEGACY_SUFFIX);
+                }
+                statement.executeUpdate("ALTER TABLE " + name + NEW_SUFFIX + " RENAME TO " + name);
+            }
+        }
+    }
+
+    private static String currentTimestamp(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT CURRENT_TIMESTAMP")) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private void dropEmptyLegacyTables(Connection connection, Logger logger) throws SQLException {
+        for (String name : tableNames()) {
+            String legacy = name + LEGACY_SUFFIX;
+            if (!SchemaMigrator.tableExists(connection, legacy)) {
+                continue;
+            }
+            boolean empty;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT 1 FROM " + legacy + " LIMIT 1")) {
+                empty = !resultSet.next();
+            }
+            if (empty) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("DROP TABLE " + legacy);
+                }
+            } else {
+                logger.info("移行前のデータは " + legacy + " に残されています。不要になったら削除してください");
+            }
+        }
+    }
+
+    private static List<String> tableNames() {
+        List<String> names = new ArrayList<>();
+        for (KeyedTable table : KEYED_TABLES) {
+            names.add(table.name);
+        }
+        names.add("inventory_deltas");
+        return names;
+    }
+
+    private static UUID parseUuid(String value, String table, Logger logger) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            logger.warning(table + " の不正なUUIDを持つ行をスキップしました: " + value);
+            return null;
+        }
+    }
+
+    private static class KeyedTable {
+        private final String name;
+        private final List<String> columns;
+
+        private KeyedTable(String name, String... columns) {
+            this.name = name;
+            this.columns = Arrays.asList(columns);
+        }
+    }
+}
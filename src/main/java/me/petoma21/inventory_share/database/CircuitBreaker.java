@@ -0,0 +1,108 @@
+package me.petoma21.inventory_share.database;
+
+import java.util.logging.Logger;
+
+// データベースが停止している間、各処理を待たせずに失敗させるためのサーキットブレーカー
+// CLOSED: 通常どおり実行する。連続した失敗が閾値に達すると OPEN になる
+// OPEN: 実行せずに即座に失敗させる。一定時間経過すると HALF_OPEN になる
+// HALF_OPEN: 1件だけ試行し、成功すれば CLOSED、失敗すれば再び OPEN になる
+// ヘルスモニターの確認結果も反映されるため、OPEN の間に復旧すれば試行を待たずに CLOSED に戻る
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Logger logger;
+    private volatile int failureThreshold;
+    private volatile long openDurationMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0L;
+    private boolean trialInFlight = false;
+
+    // 統計
+    private long trips = 0;
+    private long rejected = 0;
+    private String lastFailure;
+
+    public CircuitBreaker(Logger logger, int failureThreshold, long openDurationMillis) {
+        this.logger = logger;
+        configure(failureThreshold, openDurationMillis);
+    }
+
+    public void configure(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMillis = Math.max(0L, openDurationMillis);
+    }
+
+    // 実行してよければ true。HALF_OPEN では試行中の1件以外は false
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDurationMillis) {
+                    state = State.HALF_OPEN;
+                    trialInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+        }
+    }
+
+    // 実行せずに失敗させる状態であれば true（試行の枠は消費しない）
+    public synchronized boolean isRejecting() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() - openedAt < openDurationMillis;
+        }
+        return state == State.HALF_OPEN && trialInFlight;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            logger.info("データベースへの接続が復旧しました。サーキットブレーカーを閉じます。");
+        }
+    }
+
+    public synchronized void recordFailure(String reason) {
+        consecutiveFailures++;
+        lastFailure = reason;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                trips++;
+                logger.warning("データベースへの接続に " + consecutiveFailures + " 回連続で失敗しました。" +
+                        openDurationMillis + "ms の間、データベースの処理を即座に失敗させます: " + reason);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized String getStats() {
+        return "状態=" + state +
+                ", 連続失敗=" + consecutiveFailures + "/" + failureThreshold +
+                ", 遮断回数=" + trips +
+                ", 拒否=" + rejected +
+                (lastFailure != null ? ", 最後のエラー=" + lastFailure : "");
+    }
+}
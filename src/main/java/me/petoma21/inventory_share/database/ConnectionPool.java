@@ -0,0 +1,357 @@
+package me.petoma21.inventory_share.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ConnectionPool {
+
+    private final Logger logger;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Settings settings;
+
+    // 貸し出し数の上限を管理するセマフォ（最大プールサイズ分の許可）
+    private final Semaphore permits;
+
+    // 待機中の接続（LIFOで取り出して直近に使った接続を優先する）
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    // 貸し出し中の接続（リーク検出用）
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(Logger logger, String url, String user, String password, Settings settings) {
+        this.logger = logger;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AIS-ConnectionPool-Housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() throws SQLException {
+        // 最小接続数まで事前に接続を作成
+        fillToMinimum();
+        long period = Math.max(1000L, settings.housekeepingIntervalMillis);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("コネクションプールは既に閉じられています");
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.connectionTimeoutMillis);
+        try {
+            if (!permits.tryAcquire(settings.connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("コネクションの取得がタイムアウトしました (" +
+                        settings.connectionTimeoutMillis + "ms, 使用中=" + borrowed.size() + "/" + settings.maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("コネクション取得中に割り込まれました", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return lend(pooled);
+                }
+                destroy(pooled);
+                if (System.nanoTime() > deadline) {
+                    break;
+                }
+            }
+
+            return lend(create());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxSize() {
+        return settings.maxSize;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+
+        // 貸し出し中の接続は実行中のクエリを壊さないよう、返却時に閉じる
+        if (!borrowed.isEmpty()) {
+            logger.info("使用中のコネクション " + borrowed.size() + " 件は返却時に閉じられます");
+        }
+    }
+
+    private Connection lend(PooledConnection pooled) {
+        pooled.borrowedAt = System.currentTimeMillis();
+        pooled.borrowStack = settings.leakDetectionThresholdMillis > 0 ? new Throwable("コネクション貸し出し元") : null;
+        pooled.leakReported = false;
+        pooled.returned = false;
+        borrowed.add(pooled);
+        return pooled.proxy();
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+        permits.release();
+
+        if (pooled.leakReported) {
+            logger.info("リークとして報告されたコネクションが返却されました (" +
+                    (System.currentTimeMillis() - pooled.borrowedAt) + "ms)");
+        }
+
+        try {
+            if (closed || pooled.raw.isClosed() || isExpired(pooled)) {
+                destroy(pooled);
+                return;
+            }
+            // 呼び出し側が変更した状態を元に戻す
+            if (!pooled.raw.getAutoCommit()) {
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            destroy(pooled);
+            return;
+        }
+
+        pooled.lastReturnedAt = System.currentTimeMillis();
+        idle.offerFirst(pooled);
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (isExpired(pooled)) {
+            return false;
+        }
+        try {
+            if (pooled.raw.isClosed()) {
+                return false;
+            }
+            // 直前まで使われていた接続は検証を省略する
+            if (System.currentTimeMillis() - pooled.lastReturnedAt < settings.validationSkipMillis) {
+                return true;
+            }
+            return pooled.raw.isValid(settings.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled) {
+        return settings.maxLifetimeMillis > 0
+                && System.currentTimeMillis() - pooled.createdAt > settings.maxLifetimeMillis;
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection raw = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        return new PooledConnection(raw);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.raw.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "コネクションのクローズに失敗しました: " + e.getMessage(), e);
+        }
+    }
+
+    private void fillToMinimum() throws SQLException {
+        while (!closed && totalConnections.get() < settings.minIdle) {
+            PooledConnection pooled = create();
+            pooled.lastReturnedAt = System.currentTimeMillis();
+            idle.offerLast(pooled);
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // アイドルタイムアウトを超えた接続を最小数まで削減
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                boolean idleTooLong = settings.idleTimeoutMillis > 0
+                        && now - pooled.lastReturnedAt > settings.idleTimeoutMillis
+                        && totalConnections.get() > settings.minIdle;
+                if ((idleTooLong || isExpired(pooled)) && idle.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            // リーク検出
+            if (settings.leakDetectionThresholdMillis > 0) {
+                for (PooledConnection pooled : borrowed) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > settings.leakDetectionThresholdMillis) {
+                        pooled.leakReported = true;
+                        logger.log(Level.WARNING, "コネクションリークの可能性があります: " +
+                                (now - pooled.borrowedAt) + "ms 返却されていません", pooled.borrowStack);
+                    }
+                }
+            }
+
+            fillToMinimum();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "最小コネクション数の確保に失敗しました: " + e.getMessage(), e);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "コネクションプールのメンテナンス中にエラーが発生しました: " + e.getMessage(), e);
+        }
+    }
+
+    private final class PooledConnection implements InvocationHandler {
+        private final Connection raw;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastReturnedAt;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowStack;
+        private volatile boolean leakReported;
+        private volatile boolean returned;
+        private Connection proxy;
+
+        private PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        private Connection proxy() {
+            // 貸し出しごとに新しいプロキシを作成し、返却後の誤用を防ぐ
+            proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (!returned && target == proxy) {
+                    returned = true;
+                    giveBack(this);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return returned || target != proxy || raw.isClosed();
+            }
+            if ("equals".equals(name)) {
+                return target == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(target);
+            }
+            if ("toString".equals(name)) {
+                return "PooledConnection[" + raw + "]";
+            }
+            if (returned || target != proxy) {
+                throw new SQLException("返却済みのコネクションが使用されました");
+            }
+            Object result;
+            try {
+                result = method.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            // 作成した全てのステートメントにクエリのタイムアウトを設定する（呼び出し側で変更することもできる）
+            if (result instanceof Statement && settings.queryTimeoutSeconds > 0) {
+                ((Statement) result).setQueryTimeout(settings.queryTimeoutSeconds);
+            }
+            return result;
+        }
+    }
+
+    public static class Settings {
+        private final int minIdle;
+        private final int maxSize;
+        private final long connectionTimeoutMillis;
+        private final long idleTimeoutMillis;
+        private final long maxLifetimeMillis;
+        private final long leakDetectionThresholdMillis;
+        private final int validationTimeoutSeconds;
+        private final int queryTimeoutSeconds;
+        private final long validationSkipMillis;
+        private final long housekeepingIntervalMillis;
+
+        public Settings(int minIdle, int maxSize, long connectionTimeoutMillis, long idleTimeoutMillis,
+                        long maxLifetimeMillis, long leakDetectionThresholdMillis, int validationTimeoutSeconds,
+                        int queryTimeoutSeconds) {
+            this.maxSize = Math.max(1, maxSize);
+            this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+            this.connectionTimeoutMillis = Math.max(250L, connectionTimeoutMillis);
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            this.maxLifetimeMillis = maxLifetimeMillis;
+            this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+            this.validationTimeoutSeconds = Math.max(1, validationTimeoutSeconds);
+            this.queryTimeoutSeconds = Math.max(0, queryTimeoutSeconds);
+            this.validationSkipMillis = 500L;
+            this.housekeepingIntervalMillis = 30000L;
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{min=" + minIdle + ", max=" + maxSize +
+                    ", connectionTimeout=" + connectionTimeoutMillis + "ms" +
+                    ", idleTimeout=" + idleTimeoutMillis + "ms" +
+                    ", maxLifetime=" + maxLifetimeMillis + "ms" +
+                    ", leakDetection=" + leakDetectionThresholdMillis + "ms" +
+                    ", queryTimeout=" + queryTimeoutSeconds + "s}";
+        }
+    }
+}
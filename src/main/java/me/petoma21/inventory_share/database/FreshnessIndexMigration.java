@@ -0,0 +1,53 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+// v4: 複数グループからの読み込みで最新の行を選ぶための変更
+// last_updated をミリ秒単位にし（秒単位では同じ秒の保存の前後が判別できない）、
+// 更新状況の確認 (uuid, group_id, last_updated, fingerprint) をインデックスだけで返せるようにする
+// 主キーのクラスタインデックスにはデータ本体 (BLOB) が含まれるため、確認のたびにそのページを読まずに済む
+// economy_data は行が小さく、主キーだけで全ての列を返せるため列の変更のみ行う
+public class FreshnessIndexMigration implements SchemaMigrator.Migration {
+
+    private static final List<String[]> TABLES = Arrays.asList(
+            new String[]{"inventory_data", "idx_inventory_data_freshness"},
+            new String[]{"enderchest_data", "idx_enderchest_data_freshness"},
+            new String[]{"economy_data", null}
+    );
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public String getDescription() {
+        return "millisecond last_updated and freshness indexes";
+    }
+
+    @Override
+    public void migrate(Connection connection, SchemaMigrator migrator) throws SQLException {
+        for (String[] table : TABLES) {
+            // テーブルごとに1回の ALTER TABLE で行い（再構築は1回）、完了したテーブルは再開時に飛ばす
+            if (migrator.getProgress(connection, getVersion(), table[0]) != null) {
+                continue;
+            }
+
+            migrator.getLogger().info(table[0] + " の last_updated をミリ秒単位に変更します...");
+            StringBuilder alter = new StringBuilder("ALTER TABLE ").append(table[0])
+                    .append(" MODIFY COLUMN last_updated TIMESTAMP(3) ")
+                    .append("DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)");
+            if (table[1] != null && !SchemaMigrator.indexExists(connection, table[0], table[1])) {
+                alter.append(", ADD INDEX ").append(table[1]).append(" (uuid, group_id, last_updated, fingerprint)");
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(alter.toString());
+            }
+            migrator.saveProgress(connection, getVersion(), table[0], "done");
+        }
+    }
+}
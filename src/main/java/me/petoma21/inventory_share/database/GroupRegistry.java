@@ -0,0 +1,63 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 共有グループ名と server_groups テーブルの整数IDの対応表
+// 各行にはグループ名の代わりにこのIDを保存する
+public class GroupRegistry {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // 登録済みのグループをすべて読み込む
+    public void load(Connection connection) throws SQLException {
+        ids.clear();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, name FROM server_groups")) {
+            while (resultSet.next()) {
+                ids.put(resultSet.getString("name"), resultSet.getInt("id"));
+            }
+        }
+    }
+
+    // 読み込み済みのIDを返す。未登録の場合は null
+    public Integer get(String name) {
+        return ids.get(name);
+    }
+
+    // IDを返し、未登録であれば登録する
+    // 呼び出し側のトランザクションに巻き込まれないよう、自動コミットの接続で呼び出すこと
+    public int getOrCreate(Connection connection, String name) throws SQLException {
+        Integer cached = ids.get(name);
+        if (cached != null) {
+            return cached;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT IGNORE INTO server_groups (name) VALUES (?)")) {
+            statement.setString(1, name);
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id FROM server_groups WHERE name = ?")) {
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("グループIDを取得できませんでした: " + name);
+                }
+                int id = resultSet.getInt("id");
+                ids.put(name, id);
+                return id;
+            }
+        }
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
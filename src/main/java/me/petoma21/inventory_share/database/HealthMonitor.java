@@ -0,0 +1,81 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// データベースへの接続をバックグラウンドで定期的に確認し、結果をサーキットブレーカーに反映する
+// 各処理は接続の確認で待たされることなく、キャッシュされた状態を参照する
+public class HealthMonitor {
+
+    // 接続の確認（失敗した場合は例外を投げる）
+    public interface Probe {
+        void check() throws SQLException;
+    }
+
+    private final Logger logger;
+    private final Probe probe;
+    private final CircuitBreaker breaker;
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean healthy = true;
+    private volatile long lastCheckedAt = 0L;
+    private volatile long lastLatencyMillis = 0L;
+
+    public HealthMonitor(Logger logger, Probe probe, CircuitBreaker breaker) {
+        this.logger = logger;
+        this.probe = probe;
+        this.breaker = breaker;
+    }
+
+    // 確認を開始する（既に開始している場合は間隔を変えて開始し直す）
+    public synchronized void start(long intervalMillis) {
+        stop();
+        long interval = Math.max(1000L, intervalMillis);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AIS-DB-HealthMonitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public String getStats() {
+        if (lastCheckedAt == 0L) {
+            return "未確認";
+        }
+        return (healthy ? "正常" : "異常") +
+                ", 応答時間=" + lastLatencyMillis + "ms" +
+                ", 最終確認=" + (System.currentTimeMillis() - lastCheckedAt) / 1000L + "秒前";
+    }
+
+    private void check() {
+        long start = System.currentTimeMillis();
+        try {
+            probe.check();
+            healthy = true;
+            breaker.recordSuccess();
+        } catch (SQLException | RuntimeException e) {
+            if (healthy) {
+                logger.warning("データベースのヘルスチェックに失敗しました: " + e.getMessage());
+            }
+            healthy = false;
+            breaker.recordFailure(e.getMessage());
+        }
+        lastLatencyMillis = System.currentTimeMillis() - start;
+        lastCheckedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,87 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// v1: スキーマ管理を導入する前のテーブル構成（uuid と server_group を文字列で保存する）
+// 既存の環境ではテーブルが作成済みのため何も変更しない。不足している列は v2 のコピー時に補われる
+public class InitialSchemaMigration implements SchemaMigrator.Migration {
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public String getDescription() {
+        return "initial schema";
+    }
+
+    @Override
+    public void migrate(Connection connection, SchemaMigrator migrator) throws SQLException {
+        String engineClause = migrator.getEngineClause();
+
+        try (Statement statement = connection.createStatement()) {
+            // インベントリテーブル
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS inventory_data (" +
+                            "uuid VARCHAR(36) NOT NULL, " +
+                            "server_group VARCHAR(64) NOT NULL, " +
+                            "inventory LONGBLOB, " +
+                            "fingerprint BIGINT NULL, " +
+                            "delta_count INT NOT NULL DEFAULT 0, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, server_group)" +
+                            ")" + engineClause
+            );
+
+            // エンダーチェストテーブル
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS enderchest_data (" +
+                            "uuid VARCHAR(36) NOT NULL, " +
+                            "server_group VARCHAR(64) NOT NULL, " +
+                            "enderchest LONGBLOB, " +
+                            "fingerprint BIGINT NULL, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, server_group)" +
+                            ")" + engineClause
+            );
+
+            // 経済データテーブル
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS economy_data (" +
+                            "uuid VARCHAR(36) NOT NULL, " +
+                            "server_group VARCHAR(64) NOT NULL, " +
+                            "balance DECIMAL(16,2) DEFAULT 0, " +
+                            "last_updated TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (uuid, server_group)" +
+                            ")" + engineClause
+            );
+
+            // 圧縮辞書テーブル
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS compression_dictionaries (" +
+                            "id INT NOT NULL AUTO_INCREMENT, " +
+                            "data_type VARCHAR(32) NOT NULL, " +
+                            "dictionary MEDIUMBLOB NOT NULL, " +
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (id)" +
+                            ")" + engineClause
+            );
+
+            // インベントリの差分テーブル（差分保存モード）
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS inventory_deltas (" +
+                            "id BIGINT NOT NULL AUTO_INCREMENT, " +
+                            "uuid VARCHAR(36) NOT NULL, " +
+                            "server_group VARCHAR(64) NOT NULL, " +
+                            "changes LONGBLOB NOT NULL, " +
+                            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (id), " +
+                            "INDEX idx_inventory_deltas_player (uuid, server_group, id)" +
+                            ")" + engineClause
+            );
+        }
+    }
+}
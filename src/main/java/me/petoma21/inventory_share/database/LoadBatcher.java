@@ -0,0 +1,143 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 同時に発生したプレイヤーごとの読み込みを短い時間だけ溜め、まとめて1回のクエリ (uuid IN (...)) で読み込む
+// 最初に要求したスレッドが window の間（または maxBatch 人に達するまで）待ってから、まとめた読み込みを実行する
+// 他のスレッドはその結果を待つ。読み込むグループの組み合わせが同じ要求だけをまとめる
+public class LoadBatcher<V> {
+
+    // まとめた読み込み。結果に含まれないプレイヤーは行が存在しないものとして扱う
+    public interface BatchLoader<V> {
+        Map<UUID, V> load(List<Integer> groupIds, List<UUID> playerUUIDs) throws SQLException;
+    }
+
+    private final BatchLoader<V> loader;
+    private volatile long windowMillis;
+    private volatile int maxBatch;
+
+    // グループの組み合わせごとの、要求を受け付けているバッチ（this で同期する）
+    private final Map<List<Integer>, Batch<V>> collecting = new HashMap<>();
+
+    // 統計
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    public LoadBatcher(BatchLoader<V> loader, long windowMillis, int maxBatch) {
+        this.loader = loader;
+        configure(windowMillis, maxBatch);
+    }
+
+    // window が 0 の場合はまとめずに1人ずつ読み込む
+    public void configure(long windowMillis, int maxBatch) {
+        this.windowMillis = Math.max(0L, windowMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    // 指定プレイヤーの読み込み結果を返す（行が存在しない場合は null）。呼び出しスレッドはバッチの完了まで待つ
+    public V load(List<Integer> groupIds, UUID playerUUID) throws SQLException {
+        requests.incrementAndGet();
+        if (windowMillis <= 0 || maxBatch <= 1) {
+            batches.incrementAndGet();
+            maxBatchSize.accumulateAndGet(1, Math::max);
+            return loader.load(groupIds, Collections.singletonList(playerUUID)).get(playerUUID);
+        }
+
+        Batch<V> batch;
+        CompletableFuture<V> future;
+        boolean leader = false;
+        synchronized (this) {
+            batch = collecting.get(groupIds);
+            if (batch == null) {
+                batch = new Batch<>();
+                collecting.put(groupIds, batch);
+                leader = true;
+            }
+            // 同じプレイヤーの要求が重なった場合は1回の読み込みを共有する
+            future = batch.futures.computeIfAbsent(playerUUID, key -> new CompletableFuture<>());
+            if (batch.futures.size() >= maxBatch) {
+                collecting.remove(groupIds, batch);
+                notifyAll();
+            }
+        }
+
+        if (leader) {
+            awaitBatch(groupIds, batch);
+            execute(groupIds, batch);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("読み込みの待機中に割り込まれました", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("まとめた読み込みに失敗しました: " + cause.getMessage(), cause);
+        }
+    }
+
+    public String getStats() {
+        long batchCount = batches.get();
+        return "要求=" + requests.get() +
+                ", クエリ=" + batchCount +
+                ", 平均=" + (batchCount > 0 ? String.format("%.1f", requests.get() / (double) batchCount) : "0") + " 人/クエリ" +
+                ", 最大=" + maxBatchSize.get() + " 人";
+    }
+
+    // 受け付け期間が終わるか、人数が上限に達するまで待つ
+    private synchronized void awaitBatch(List<Integer> groupIds, Batch<V> batch) {
+        long deadline = System.currentTimeMillis() + windowMillis;
+        try {
+            while (collecting.get(groupIds) == batch) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        collecting.remove(groupIds, batch);
+    }
+
+    private void execute(List<Integer> groupIds, Batch<V> batch) {
+        List<UUID> playerUUIDs;
+        synchronized (this) {
+            playerUUIDs = new ArrayList<>(batch.futures.keySet());
+        }
+        batches.incrementAndGet();
+        maxBatchSize.accumulateAndGet(playerUUIDs.size(), Math::max);
+
+        try {
+            Map<UUID, V> results = loader.load(groupIds, playerUUIDs);
+            for (Map.Entry<UUID, CompletableFuture<V>> entry : batch.futures.entrySet()) {
+                entry.getValue().complete(results.get(entry.getKey()));
+            }
+        } catch (SQLException | RuntimeException e) {
+            for (CompletableFuture<V> future : batch.futures.values()) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class Batch<V> {
+        // 締め切り後は変更されない
+        private final Map<UUID, CompletableFuture<V>> futures = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,195 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+// schema_version テーブルでスキーマのバージョンを管理し、未適用のマイグレーションを順に実行する
+// 途中で停止した場合は、各マイグレーションが schema_migration_progress に記録した位置から再開する
+public class SchemaMigrator {
+
+    // 複数のサーバーが同時に起動した場合に、マイグレーションを1台だけで実行するためのロック名
+    private static final String LOCK_NAME = "inventory_share_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 600;
+
+    public interface Migration {
+        int getVersion();
+
+        String getDescription();
+
+        // 再実行されても問題がないように実装すること（途中で停止した場合に再度呼び出される）
+        void migrate(Connection connection, SchemaMigrator migrator) throws SQLException;
+    }
+
+    private final Logger logger;
+    private final String engineClause;
+    private final List<Migration> migrations;
+
+    public SchemaMigrator(Logger logger, String engineClause, List<Migration> migrations) {
+        this.logger = logger;
+        this.engineClause = engineClause;
+        this.migrations = new ArrayList<>(migrations);
+        this.migrations.sort(Comparator.comparingInt(Migration::getVersion));
+    }
+
+    // 未適用のマイグレーションを実行し、適用後のバージョンを返す
+    public int migrate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS schema_version (" +
+                            "version INT NOT NULL, " +
+                            "description VARCHAR(255) NOT NULL, " +
+                            "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                            "PRIMARY KEY (version)" +
+                            ")" + engineClause
+            );
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS schema_migration_progress (" +
+                            "version INT NOT NULL, " +
+                            "step VARCHAR(64) NOT NULL, " +
+                            "value VARCHAR(255) NOT NULL, " +
+                            "PRIMARY KEY (version, step)" +
+                            ")" + engineClause
+            );
+        }
+
+        acquireLock(connection);
+        try {
+            int current = getCurrentVersion(connection);
+            for (Migration migration : migrations) {
+                if (migration.getVersion() <= current) {
+                    continue;
+                }
+
+                logger.info("スキーマのマイグレーション v" + migration.getVersion() + " (" +
+                        migration.getDescription() + ") を実行します...");
+                long start = System.currentTimeMillis();
+                migration.migrate(connection, this);
+
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                    statement.setInt(1, migration.getVersion());
+                    statement.setString(2, migration.getDescription());
+                    statement.executeUpdate();
+                }
+                clearProgress(connection, migration.getVersion());
+                current = migration.getVersion();
+                logger.info("スキーマのマイグレーション v" + current + " が完了しました (" +
+                        (System.currentTimeMillis() - start) + "ms)");
+            }
+            return current;
+        } finally {
+            releaseLock(connection);
+        }
+    }
+
+    public String getEngineClause() {
+        return engineClause;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    private int getCurrentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new SQLException("スキーマのマイグレーション用ロックを取得できませんでした");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        } catch (SQLException e) {
+            logger.warning("スキーマのマイグレーション用ロックの解放に失敗しました: " + e.getMessage());
+        }
+    }
+
+    // 再開位置などの進捗を読み込む。記録がなければ null
+    public String getProgress(Connection connection, int version, String step) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT value FROM schema_migration_progress WHERE version = ? AND step = ?")) {
+            statement.setInt(1, version);
+            statement.setString(2, step);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString("value") : null;
+            }
+        }
+    }
+
+    // 進捗を記録する。バッチと同じトランザクションで呼び出せば、コミットされたバッチと進捗が必ず一致する
+    public void saveProgress(Connection connection, int version, String step, String value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO schema_migration_progress (version, step, value) VALUES (?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE value = ?")) {
+            statement.setInt(1, version);
+            statement.setString(2, step);
+            statement.setString(3, value);
+            statement.setString(4, value);
+            statement.executeUpdate();
+        }
+    }
+
+    private void clearProgress(Connection connection, int version) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM schema_migration_progress WHERE version = ?")) {
+            statement.setInt(1, version);
+            statement.executeUpdate();
+        }
+    }
+
+    public static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+            return tables.next();
+        }
+    }
+
+    // 列の型名を返す。列が存在しなければ null
+    public static String getColumnType(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return columns.next() ? columns.getString("TYPE_NAME") : null;
+        }
+    }
+
+    public static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        try (ResultSet indexes = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+            while (indexes.next()) {
+                if (index.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public void ensureColumn(Connection connection, String table, String column, String definition) throws SQLException {
+        if (getColumnType(connection, table, column) != null) {
+            return;
+        }
+
+        logger.info(table + " に " + column + " 列を追加します...");
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package me.petoma21.inventory_share.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// v3: サーバー間の引き継ぎ用のセッションテーブル
+// owner と lease_until は現在プレイヤーのデータを所有しているサーバーと所有期限、version は保存のたびに1ずつ増える
+public class SessionTableMigration implements SchemaMigrator.Migration {
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public String getDescription() {
+        return "player session leases";
+    }
+
+    @Override
+    public void migrate(Connection connection, SchemaMigrator migrator) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(
+                    "CREATE TABLE IF NOT EXISTS player_sessions (" +
+                            "uuid BINARY(16) NOT NULL, " +
+                            "group_id SMALLINT UNSIGNED NOT NULL, " +
+                            "owner VARCHAR(64) NULL DEFAULT NULL, " +
+                            "lease_until TIMESTAMP(3) NULL DEFAULT NULL, " +
+                            "version BIGINT NOT NULL DEFAULT 0, " +
+                            "PRIMARY KEY (uuid, group_id)" +
+                            ")" + migrator.getEngineClause()
+            );
+        }
+    }
+}
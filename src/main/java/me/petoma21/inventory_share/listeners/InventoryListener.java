@@ -1,60 +1,175 @@
 package me.petoma21.inventory_share.listeners;
 
 import me.petoma21.inventory_share.Inventory_Share;
+import me.petoma21.inventory_share.storage.DirtyTracker;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerItemConsumeEvent;
+import org.bukkit.event.player.PlayerItemDamageEvent;
+import org.bukkit.event.player.PlayerSwapHandItemsEvent;
 import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.scheduler.BukkitTask;
 
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class InventoryListener implements Listener {
     private final Inventory_Share plugin;
     private BukkitTask autoSaveTask;
+    private int autoSaveCount = 0;
+    private int autoSaveSlice = 0;
 
     public InventoryListener(Inventory_Share plugin) {
         this.plugin = plugin;
         startAutoSaveTask();
     }
-    private void startAutoSaveTask() {
+    // 自動保存を開始する（設定の再読み込み時は作り直す）
+    // interval を slice ごとの区間に分け、各プレイヤーは UUID から決まる区間でだけ保存する
+    public void startAutoSaveTask() {
         // 以前に実行されていたタスクがあればキャンセル
         if (autoSaveTask != null) {
             autoSaveTask.cancel();
         }
 
-        // 5分(6000 ticks)ごとに実行
+        final long sliceTicks = plugin.getPluginConfig().getAutoSaveSlice() * 20L;
+        final int slices = Math.max(1, plugin.getPluginConfig().getAutoSaveInterval() / plugin.getPluginConfig().getAutoSaveSlice());
+        final long delay = sliceTicks + ThreadLocalRandom.current().nextInt(plugin.getPluginConfig().getAutoSaveJitter() + 1) * 20L;
+        autoSaveSlice = 0;
+
         autoSaveTask = new BukkitRunnable() {
             @Override
             public void run() {
-//                plugin.getLogger().info("Executing automatic inventory save for all online players...");
-
-                // 非同期で全プレイヤーのデータを保存
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        for (Player player : plugin.getServer().getOnlinePlayers()) {
-                            UUID playerUUID = player.getUniqueId();
-                            String playerName = player.getName();
-
-                            // 同期処理中であればデータの保存をスキップ
-                            if (PlayerListener.syncingPlayers.contains(playerUUID)) {
-                                plugin.getLogger().info(playerName + " is currently being synchronized. Skipping data save to prevent data loss.");
-                                continue;
-                            }
-
-                            // プレイヤーインベントリの保存
+                int slice = autoSaveSlice;
+                autoSaveSlice = (slice + 1) % slices;
+
+                // 一定回数ごとに、イベントで検知できない変更に備えて全プレイヤーを確認する
+                if (slice == 0) {
+                    autoSaveCount++;
+                }
+                int fullScanEvery = plugin.getPluginConfig().getAutoSaveFullScanEvery();
+                final boolean fullScan = !plugin.getPluginConfig().isAutoSaveDirtyTracking()
+                        || (fullScanEvery > 0 && autoSaveCount % fullScanEvery == 0);
+
+                // 各プレイヤーの内容はメインスレッドで複製する。1tick の処理時間の上限内に収まる人数ずつ取得され、
+                // 複製した内容のエンコードは書き込みキューのスレッドで、書き込みはストレージのスレッドの自動保存 (LOW) として行われる
+                DirtyTracker tracker = plugin.getDirtyTracker();
+                for (Player player : plugin.getServer().getOnlinePlayers()) {
+                    final UUID playerUUID = player.getUniqueId();
+                    if (Math.floorMod(playerUUID.hashCode(), slices) != slice) {
+                        continue;
+                    }
+                    plugin.getCaptureQueue().submit(playerUUID, () -> {
+                        // 同期処理中・退出済みであればデータの保存をスキップ
+                        if (!player.isOnline()) {
+                            return;
+                        }
+                        if (plugin.getSessionRegistry().isSyncing(playerUUID)) {
+                            plugin.getLogger().info(player.getName() + " is currently being synchronized. Skipping data save to prevent data loss.");
+                            return;
+                        }
+
+                        // 取得と同じ tick でフラグを下ろすため、取り逃す変更はない
+                        boolean inventoryDirty = tracker.clearInventoryDirty(playerUUID);
+                        boolean enderChestDirty = tracker.clearEnderChestDirty(playerUUID);
+
+                        // プレイヤーインベントリの保存（前回と同じ内容なら書き込みは省略される）
+                        if (fullScan || inventoryDirty) {
                             plugin.getInventoryManager().savePlayerInventory(player);
+                        }
 
-                            // エンダーチェストの保存
+                        // エンダーチェストの保存
+                        if (fullScan || enderChestDirty) {
                             plugin.getEnderChestManager().savePlayerEnderChest(player);
                         }
-//                        plugin.getLogger().info("Automatic inventory save completed.");
-                    }
-                }.runTaskAsynchronously(plugin);
+                    });
+                }
             }
-        }.runTaskTimer(plugin, 6000, 6000); // 5分(6000 ticks)ごとに実行
+        }.runTaskTimer(plugin, delay, sliceTicks);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryClick(InventoryClickEvent event) {
+        // クラフト結果の取り出しも含む
+        markInventoryDirty(event.getWhoClicked());
+        if (event.getInventory().getType() == InventoryType.ENDER_CHEST) {
+            markEnderChestDirty(event.getWhoClicked());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryDrag(InventoryDragEvent event) {
+        markInventoryDirty(event.getWhoClicked());
+        if (event.getInventory().getType() == InventoryType.ENDER_CHEST) {
+            markEnderChestDirty(event.getWhoClicked());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        if (event.getInventory().getType() == InventoryType.ENDER_CHEST) {
+            markEnderChestDirty(event.getPlayer());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemPickup(EntityPickupItemEvent event) {
+        if (event.getEntity() instanceof Player) {
+            markInventoryDirty((Player) event.getEntity());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemDrop(PlayerDropItemEvent event) {
+        markInventoryDirty(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSwapHandItems(PlayerSwapHandItemsEvent event) {
+        markInventoryDirty(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        markInventoryDirty(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemConsume(PlayerItemConsumeEvent event) {
+        markInventoryDirty(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onItemDamage(PlayerItemDamageEvent event) {
+        markInventoryDirty(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        markInventoryDirty(event.getEntity());
+    }
+
+    private void markInventoryDirty(HumanEntity entity) {
+        if (entity instanceof Player) {
+            plugin.getDirtyTracker().markInventoryDirty(entity.getUniqueId());
+        }
+    }
+
+    private void markEnderChestDirty(HumanEntity entity) {
+        if (entity instanceof Player) {
+            plugin.getDirtyTracker().markEnderChestDirty(entity.getUniqueId());
+        }
+    }
 
     public void shutdown() {
         if (autoSaveTask != null) {
@@ -62,4 +177,4 @@ public class InventoryListener implements Listener {
             autoSaveTask = null;
         }
     }
-}
\ No newline at end of file
+}
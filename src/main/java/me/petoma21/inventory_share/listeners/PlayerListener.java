@@ -1,38 +1,88 @@
 package me.petoma21.inventory_share.listeners;
 
+import me.petoma21.inventory_share.InventoryManager;
 import me.petoma21.inventory_share.Inventory_Share;
+import me.petoma21.inventory_share.storage.PlayerSessionRegistry;
+import me.petoma21.inventory_share.storage.PlayerState;
+import me.petoma21.inventory_share.storage.StorageExecutor;
 import org.bukkit.Sound;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.entity.EntityPickupItemEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PlayerListener implements Listener {
     private final Inventory_Share plugin;
 
-    // 同期処理中のプレイヤーを追跡するためのセット
-    public static Set<UUID> syncingPlayers = new HashSet<>();
-
-    // インベントリをクリアしたプレイヤーの一時的なバックアップを保存
-    private final Map<UUID, Map<String, Object>> playerBackups = new HashMap<>();
+    // プレイヤーごとの同期の段階（同期処理中かどうか）と、同期前の内容のバックアップ
+    private final PlayerSessionRegistry registry;
 
     public PlayerListener(Inventory_Share plugin) {
         this.plugin = plugin;
+        this.registry = plugin.getSessionRegistry();
+    }
+
+    // ログイン前の非同期スレッドでプレイヤーデータを先読みしておく（参加時の読み込み・デコードを省略するため）
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        // データベースの処理が詰まっている間は新しいログインを受け付けない（参加しても同期が終わらないため）
+        if (plugin.getStorageExecutor().isSaturated()) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
+                    "§c[AIS] サーバーが混雑しています。しばらくしてから再接続してください。");
+            plugin.getLogger().warning("Refused login of " + event.getName() + " because the storage queue is full.");
+            return;
+        }
+        // データベースが停止している間は参加してもデータを読み込めないため、受け付けない
+        if (!plugin.getDatabaseManager().isAvailable()) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
+                    "§c[AIS] データベースに接続できません。しばらくしてから再接続してください。");
+            plugin.getLogger().warning("Refused login of " + event.getName() + " because the database is unavailable.");
+            return;
+        }
+
+        final UUID playerUUID = event.getUniqueId();
+        registry.preLogin(playerUUID);
+        if (!plugin.getServerSpecificConfig("prefetch-enabled", true)) {
+            return;
+        }
+
+        try {
+            PlayerState state = plugin.getPlayerStateManager().fetchPlayerState(playerUUID);
+            if (state != null) {
+                plugin.getPrefetchCache().put(playerUUID, state);
+            }
+        } catch (Exception e) {
+            // 先読みに失敗しても参加時に通常通り読み込まれる
+            plugin.getLogger().warning("Failed to prefetch player data for " + event.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // ログイン前の処理の後に他のプラグインがログインを拒否した場合は、先読みの登録を取り消す
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            registry.abortPreLogin(event.getPlayer().getUniqueId());
+            plugin.getPrefetchCache().invalidate(event.getPlayer().getUniqueId());
+        }
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -40,8 +90,11 @@ public class PlayerListener implements Listener {
         final Player player = event.getPlayer();
         final UUID playerUUID = player.getUniqueId();
 
+        // ログイン前に先読みしたデータ（ない場合は null）
+        final PlayerState prefetched = plugin.getPrefetchCache().take(playerUUID);
+
         // 同期処理中にマーク
-        syncingPlayers.add(playerUUID);
+        registry.startLoading(playerUUID);
 
         // プレイヤーの現在のインベントリをバックアップ（ここではほとんどの場合空になるはず）
 //        backupPlayerData(player);
@@ -50,133 +103,139 @@ public class PlayerListener implements Listener {
         clearPlayerInventory(player);
         player.sendMessage("§2[AIS] §aプレイヤーデータを同期中... 動かずにお待ちください");
 
-        // ログイン時はわずかに遅らせてインベントリを同期
-        // 他のプラグインによるインベントリ操作の影響を避けるため
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (!player.isOnline()) {
-                    // プレイヤーがすでにオフラインの場合は同期フラグを解除
-                    syncingPlayers.remove(playerUUID);
-                    // バックアップを削除（もう必要ない）
-                    playerBackups.remove(playerUUID);
-                    return;
-                }
+        // 移動元のサーバーが退出時の保存を終えてセッションを解放してから、ストレージのスレッドでデータを読み込む
+        // （解放を待つ間はスレッドを占有せず、再試行を登録し直す）
+        // データの適用はメインスレッドの次のタスクで行うため、他のプラグインの参加時の処理より後になる
+        plugin.getPlayerStateManager().acquireSessionAsync(playerUUID, StorageExecutor.Priority.HIGH,
+                () -> !player.isOnline() || registry.getPhase(playerUUID) != PlayerSessionRegistry.Phase.LOADING,
+                () -> loadAndApply(player, prefetched),
+                e -> reportSyncError(player, e));
+    }
 
-                // 非同期でデータを読み込む
-                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-                    // データ格納用のマップ
-                    final Map<String, Object> playerData = new HashMap<>();
+    // セッション取得後に、ストレージのスレッドでデータを読み込み、メインスレッドでの適用を登録する
+    private void loadAndApply(Player player, PlayerState prefetched) {
+        final UUID playerUUID = player.getUniqueId();
+        try {
+            if (!player.isOnline() || registry.getPhase(playerUUID) != PlayerSessionRegistry.Phase.LOADING) {
+                // 待機中に退出した場合はセッションを解放する（同期の段階は退出時に GONE になっている）
+                plugin.getPlayerStateManager().releaseSession(playerUUID);
+                return;
+            }
 
-                    try {
-                        // インベントリデータを読み込み
-                        Object inventoryData = plugin.getInventoryManager().loadPlayerInventoryData(playerUUID);
-                        if (inventoryData != null) {
-                            playerData.put("inventory", inventoryData);
-                        } else {
-                            plugin.getLogger().warning("Player " + player.getName() + " has no inventory data.");
-                        }
+            // インベントリ・エンダーチェスト・所持金を1回のクエリで読み込む（キャッシュ・先読み済みであれば読み込みを省略）
+            final Map<String, Object> playerData = loadPlayerData(playerUUID, player.getName(), prefetched);
 
-                        // エンダーチェストデータを読み込み（設定で有効な場合のみ）
-                        if (plugin.getServerSpecificConfig("sync-enderchest", true)) {
-                            Object enderChestData = plugin.getEnderChestManager().loadPlayerEnderChestData(playerUUID);
-                            if (enderChestData != null) {
-                                playerData.put("enderchest", enderChestData);
-                            } else {
-                                plugin.getLogger().warning("Player " + player.getName() + " has no enderchest data.");
-                            }
-                        }
+            // データが全く読み込めなかった場合
+            if (playerData.isEmpty()) {
+                plugin.getLogger().warning("No data found for player " + player.getName() + ". This might be their first login.");
+            }
 
-                        // 所持金データを読み込み
-                        if (plugin.getEconomyManager().isEconomyEnabled()) {
-                            Object economyData = plugin.getEconomyManager().loadPlayerBalanceData(playerUUID);
-                            if (economyData != null) {
-                                playerData.put("economy", economyData);
-                            } else {
-                                plugin.getLogger().warning("Player " + player.getName() + " has no economy data.");
-                            }
+            // メインスレッドに戻ってデータを適用
+            // 大量の同時参加で1tickに適用が集中しないよう、1tick あたりの処理時間の上限内で待ち時間の長い順に適用する
+            final boolean hasData = !playerData.isEmpty();
+            if (!registry.transition(playerUUID, PlayerSessionRegistry.Phase.LOADING, PlayerSessionRegistry.Phase.APPLYING)) {
+                // 読み込み中に退出した
+                return;
+            }
+            plugin.getApplyQueue().replace(playerUUID, () -> {
+                try {
+                    if (!player.isOnline() || registry.getPhase(playerUUID) != PlayerSessionRegistry.Phase.APPLYING) {
+                        // プレイヤーがすでにオフラインの場合は処理しない
+                        return;
+                    }
+
+                    // データが読み込めた場合のみ適用する
+                    if (hasData) {
+                        // item全ドロップ処理
+                        dropAllItems(player);
+                        // インベントリを適用
+                        if (playerData.containsKey("inventory")) {
+                            plugin.getInventoryManager().applyInventoryToPlayer(player, playerData.get("inventory"));
                         }
 
-                        // データが全く読み込めなかった場合
-                        if (playerData.isEmpty()) {
-                            plugin.getLogger().warning("No data found for player " + player.getName() + ". This might be their first login.");
+                        // エンダーチェストを適用
+                        if (playerData.containsKey("enderchest")) {
+                            plugin.getEnderChestManager().applyEnderChestToPlayer(player, playerData.get("enderchest"));
                         }
 
-                        // メインスレッドに戻ってデータを適用
-                        final boolean hasData = !playerData.isEmpty();
-                        plugin.getServer().getScheduler().runTask(plugin, () -> {
-                            try {
-                                if (!player.isOnline()) {
-                                    // プレイヤーがすでにオフラインの場合は処理しない
-                                    syncingPlayers.remove(playerUUID);
-                                    playerBackups.remove(playerUUID);
-                                    return;
-                                }
-
-                                // データが読み込めた場合のみ適用する
-                                if (hasData) {
-                                    // item全ドロップ処理
-                                    dropAllItems(player);
-                                    // インベントリを適用
-                                    if (playerData.containsKey("inventory")) {
-                                        plugin.getInventoryManager().applyInventoryToPlayer(player, playerData.get("inventory"));
-                                    }
-
-                                    // エンダーチェストを適用
-                                    if (playerData.containsKey("enderchest")) {
-                                        plugin.getEnderChestManager().applyEnderChestToPlayer(player, playerData.get("enderchest"));
-                                    }
-
-                                    // 所持金を適用
-                                    if (playerData.containsKey("economy")) {
-                                        plugin.getEconomyManager().applyBalanceToPlayer(player, playerData.get("economy"));
-                                    }
-                                } else {
-                                    // データが読み込めなかった場合、バックアップがあれば復元する
-                                    restorePlayerDataFromBackup(player);
-                                }
-
-                                // バックアップは不要になるので削除
-                                playerBackups.remove(playerUUID);
-
-                                // 同期処理完了のマークを解除
-                                syncingPlayers.remove(playerUUID);
-                                player.sendMessage("§2[AIS] §aデータ同期完了!");
-
-                                // 同期完了サウンドを再生（設定で有効な場合のみ）
-                                playCompletionSound(player);
-                            } catch (Exception e) {
-                                // エラー時はバックアップから復元を試みる
-                                restorePlayerDataFromBackup(player);
-
-                                // 同期フラグを解除
-                                syncingPlayers.remove(playerUUID);
-                                playerBackups.remove(playerUUID);
-                                player.sendMessage("§2[AIS] §cデータ同期中にエラーが発生しました。スタッフに報告してください！");
-                                plugin.getLogger().warning("Error applying player data for " + player.getName() + ": " + e.getMessage());
-                                e.printStackTrace();
-                            }
-                        });
-                    } catch (Exception e) {
-                        // エラーが発生した場合、メインスレッドでエラーメッセージを表示
-                        plugin.getServer().getScheduler().runTask(plugin, () -> {
-                            // エラー時はバックアップから復元を試みる
-                            restorePlayerDataFromBackup(player);
-
-                            // エラー時も同期フラグを解除
-                            syncingPlayers.remove(playerUUID);
-                            playerBackups.remove(playerUUID);
-                            if (player.isOnline()) {
-                                player.sendMessage("§2[AIS] §cデータ同期中にエラーが発生しました。スタッフに報告してください！");
-                            }
-                            plugin.getLogger().warning("Error loading player data for " + player.getName() + ": " + e.getMessage());
-                            e.printStackTrace();
-                        });
+                        // 所持金を適用
+                        if (playerData.containsKey("economy")) {
+                            plugin.getEconomyManager().applyBalanceToPlayer(player, playerData.get("economy"));
+                        }
+                    } else {
+                        // データが読み込めなかった場合、バックアップがあれば復元する
+                        restorePlayerDataFromBackup(player);
                     }
-                });
+
+                    // 同期処理完了（バックアップは不要になるので破棄される）
+                    registry.activate(playerUUID);
+                    player.sendMessage("§2[AIS] §aデータ同期完了!");
+
+                    // 同期完了サウンドを再生（設定で有効な場合のみ）
+                    playCompletionSound(player);
+                } catch (Exception e) {
+                    // エラー時はバックアップから復元を試みる
+                    restorePlayerDataFromBackup(player);
+
+                    // 同期処理中の段階を終える
+                    registry.activate(playerUUID);
+                    player.sendMessage("§2[AIS] §cデータ同期中にエラーが発生しました。スタッフに報告してください！");
+                    plugin.getLogger().warning("Error applying player data for " + player.getName() + ": " + e.getMessage());
+                    e.printStackTrace();
+                }
+            });
+        } catch (Exception e) {
+            reportSyncError(player, e);
+        }
+    }
+
+    // 読み込みに失敗した場合、メインスレッドでエラーメッセージを表示する
+    private void reportSyncError(Player player, Exception e) {
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            // エラー時はバックアップから復元を試みる
+            restorePlayerDataFromBackup(player);
+
+            // エラー時も同期処理中の段階を終える（退出済みの場合は何もしない）
+            registry.activate(player.getUniqueId());
+            if (player.isOnline()) {
+                player.sendMessage("§2[AIS] §cデータ同期中にエラーが発生しました。スタッフに報告してください！");
             }
-            // 同期開始までの待ち時間
-        }.runTaskLater(plugin, 30L);
+            plugin.getLogger().warning("Error loading player data for " + player.getName() + ": " + e.getMessage());
+            e.printStackTrace();
+        });
+    }
+
+    private Map<String, Object> loadPlayerData(UUID playerUUID, String playerName, PlayerState prefetched) {
+        // データ格納用のマップ
+        final Map<String, Object> playerData = new HashMap<>();
+
+        PlayerState state = plugin.getPlayerStateManager().loadPlayerStateForJoin(playerUUID, prefetched);
+        if (state == null) {
+            throw new IllegalStateException("プレイヤーデータの読み込みに失敗しました");
+        }
+
+        // インベントリデータ
+        if (state.getInventory() != null) {
+            playerData.put("inventory", state.getInventory());
+        } else {
+            plugin.getLogger().warning("Player " + playerName + " has no inventory data.");
+        }
+
+        // エンダーチェストデータ（設定で有効な場合のみ）
+        if (plugin.getPlayerStateManager().isEnderChestSyncEnabled()) {
+            if (state.getEnderChest() != null) {
+                playerData.put("enderchest", state.getEnderChest());
+            } else {
+                plugin.getLogger().warning("Player " + playerName + " has no enderchest data.");
+            }
+        }
+
+        // 所持金データ（行がない場合は従来通り 0 として扱う）
+        if (plugin.getPlayerStateManager().isEconomySyncEnabled()) {
+            playerData.put("economy", state.getBalance() != null ? state.getBalance() : 0.0);
+        }
+
+        return playerData;
     }
 
     private void playCompletionSound(Player player) {
@@ -211,88 +270,155 @@ public class PlayerListener implements Listener {
         final String playerName = player.getName();
         final UUID playerUUID = player.getUniqueId();
 
-        // 同期処理中であればデータの保存をスキップ
-        if (syncingPlayers.contains(playerUUID)) {
+        // 使われなかった先読みデータと、まだ実行されていない自動保存の取得・参加時の適用を破棄
+        plugin.getPrefetchCache().invalidate(playerUUID);
+        plugin.getCaptureQueue().cancel(playerUUID);
+        plugin.getApplyQueue().cancel(playerUUID);
+
+        // 同期処理中であればデータの保存をスキップ（段階は GONE になり、バックアップも破棄される）
+        // 同期が完了していれば SAVING に進み、保存が終わるまで自動保存の対象から外れる
+        if (registry.beginQuit(playerUUID).isSyncing()) {
             plugin.getLogger().info(playerName + " left during data synchronization. Skipping data save to prevent data loss.");
-            // 同期フラグを解除
-            syncingPlayers.remove(playerUUID);
-            // バックアップも削除
-            playerBackups.remove(playerUUID);
+            plugin.getDirtyTracker().forget(playerUUID);
+            // データは保存していないため、そのままセッションを解放する
+            submitQuitTask(playerUUID,
+                    () -> plugin.getPlayerStateManager().releaseSession(playerUUID));
             return;
         }
 
         try {
-            // インベントリデータを退出前に取得
-            final ItemStack[] inventoryContents = player.getInventory().getContents().clone();
-            final ItemStack[] armorContents = player.getInventory().getArmorContents().clone();
-            final ItemStack offHandItem = player.getInventory().getItemInOffHand().clone();
-
-            // エンダーチェストデータを退出前に取得
-            final ItemStack[] enderChestContents = plugin.getServerSpecificConfig("sync-enderchest", true)
-                    ? player.getEnderChest().getContents().clone() : null;
-
-            // 所持金データを退出前に取得
-            final double balance = plugin.getEconomyManager().isEconomyEnabled()
-                    ? plugin.getEconomyManager().getPlayerBalance(player) : 0.0;
-
-            // インベントリの内容をチェックして、空でない場合のみ保存
-            boolean hasItems = false;
-            if (inventoryContents != null) {
-                for (ItemStack item : inventoryContents) {
-                    if (item != null) {
-                        hasItems = true;
-                        break;
-                    }
-                }
-            }
-
-            if (!hasItems && armorContents != null) {
-                for (ItemStack item : armorContents) {
-                    if (item != null) {
-                        hasItems = true;
-                        break;
-                    }
-                }
-            }
-
-            if (!hasItems && offHandItem != null) {
-                hasItems = true;
-            }
+            // 退出前にデータを取得
+            final PlayerState state = captureFinalState(player);
 
             // アイテムがある場合のみ保存処理を実行
-            if (hasItems) {
-                // 非同期でデータを保存
-                plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            if (state != null) {
+                // ストレージのスレッドでデータを保存
+                submitQuitTask(playerUUID, () -> {
                     try {
-                        // インベントリの保存
-                        plugin.getInventoryManager().savePlayerInventoryData(playerUUID, inventoryContents, armorContents, offHandItem);
-
-                        // エンダーチェストの保存（設定で有効な場合のみ）
-                        if (plugin.getServerSpecificConfig("sync-enderchest", true) && enderChestContents != null) {
-                            plugin.getEnderChestManager().savePlayerEnderChestData(playerUUID, enderChestContents);
+                        // 未書き込みの自動保存データと統合し、1トランザクションで即座に保存
+                        if (!plugin.getPlayerStateManager().savePlayerStateNow(playerUUID, state)) {
+                            plugin.getLogger().warning(playerName + " player data could not be saved.");
+                            return;
                         }
 
-                        // 所持金の保存
-                        if (plugin.getEconomyManager().isEconomyEnabled()) {
-                            plugin.getEconomyManager().savePlayerBalanceData(playerUUID, balance);
-                        }
+                        // 保存がコミットされたので、移動先のサーバーにセッションを引き渡す
+                        plugin.getPlayerStateManager().releaseSession(playerUUID);
+
+                        // 退出後は他のサーバーで内容が変わるため、変更追跡の記録を破棄
+                        plugin.getDirtyTracker().forget(playerUUID);
 
                         // ログに記録
                         plugin.getLogger().info(playerName + " player data save was successful!");
                     } catch (Exception e) {
                         plugin.getLogger().warning("An error occurred while saving " + playerName + " player data.: " + e.getMessage());
                         e.printStackTrace();
+                    } finally {
+                        registry.finishSaving(playerUUID);
                     }
                 });
             } else {
+                plugin.getDirtyTracker().forget(playerUUID);
+                submitQuitTask(playerUUID, () -> {
+                    plugin.getPlayerStateManager().releaseSession(playerUUID);
+                    registry.finishSaving(playerUUID);
+                });
                 plugin.getLogger().info(playerName + " has no items to save. Skipping save operation.");
             }
         } catch (Exception e) {
+            registry.finishSaving(playerUUID);
             plugin.getLogger().warning("An error occurred while preparing " + playerName + " player data for save: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // 退出時の保存・セッションの解放をストレージのスレッドに登録する
+    // 待ち行列が一杯の場合、ジャーナルが有効であれば保存はローカルへの記録だけで済むため、このスレッドで実行する
+    // 無効な場合は submit-timeout だけ空きを待ち、それでも登録できなければデータを失わないようこのスレッドで実行する
+    private void submitQuitTask(UUID playerUUID, Runnable task) {
+        StorageExecutor executor = plugin.getStorageExecutor();
+        if (executor.tryExecute(StorageExecutor.Priority.NORMAL, playerUUID, task)) {
+            return;
+        }
+        if (plugin.getSaveJournal() == null) {
+            try {
+                executor.execute(StorageExecutor.Priority.NORMAL, playerUUID, task);
+                return;
+            } catch (RejectedExecutionException e) {
+                plugin.getLogger().warning("Storage queue is full. Saving " + playerUUID + " on the main thread.");
+            }
+        }
+        task.run();
+    }
+
+    // 退出時と同じ内容で、プレイヤーの最終データを取得する（メインスレッドで呼び出すこと）
+    // 保存は別のスレッドで行うため、アイテムごとに複製する。アイテムがない場合は null
+    public PlayerState captureFinalState(Player player) {
+        // インベントリデータを取得
+        final ItemStack[] inventoryContents = InventoryManager.copyContents(player.getInventory().getContents());
+        final ItemStack[] armorContents = InventoryManager.copyContents(player.getInventory().getArmorContents());
+        final ItemStack offHandItem = player.getInventory().getItemInOffHand().clone();
+
+        // エンダーチェストデータを取得
+        final ItemStack[] enderChestContents = plugin.getServerSpecificConfig("sync-enderchest", true)
+                ? InventoryManager.copyContents(player.getEnderChest().getContents()) : null;
+
+        // 所持金データを取得
+        final double balance = plugin.getEconomyManager().isEconomyEnabled()
+                ? plugin.getEconomyManager().getPlayerBalance(player) : 0.0;
+
+        // インベントリの内容をチェックして、空でない場合のみ保存
+        boolean hasItems = false;
+        if (inventoryContents != null) {
+            for (ItemStack item : inventoryContents) {
+                if (item != null) {
+                    hasItems = true;
+                    break;
+                }
+            }
+        }
+
+        if (!hasItems && armorContents != null) {
+            for (ItemStack item : armorContents) {
+                if (item != null) {
+                    hasItems = true;
+                    break;
+                }
+            }
+        }
+
+        if (!hasItems && offHandItem != null) {
+            hasItems = true;
+        }
+
+        if (!hasItems) {
+            return null;
+        }
+        return new PlayerState(inventoryContents, enderChestContents,
+                plugin.getEconomyManager().isEconomyEnabled() ? balance : null);
+    }
+
+    // サーバー停止時に、オンラインのプレイヤー全員の最終データを取得する
+    // 同期処理中のプレイヤーはデータベースの内容をまだ適用していないため除く
+    public Map<UUID, PlayerState> captureOnlinePlayers() {
+        Map<UUID, PlayerState> states = new LinkedHashMap<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            UUID playerUUID = player.getUniqueId();
+            if (registry.isSyncing(playerUUID)) {
+                plugin.getLogger().info(player.getName() + " is currently being synchronized. Skipping data save on shutdown.");
+                continue;
+            }
+            try {
+                PlayerState state = captureFinalState(player);
+                if (state != null) {
+                    states.put(playerUUID, state);
+                }
+            } catch (Exception e) {
+                plugin.getLogger().warning("An error occurred while preparing " + player.getName() + " player data for save: " + e.getMessage());
+            }
+        }
+        return states;
+    }
+
     private void clearPlayerInventory(Player player) {
         // メインインベントリをクリア
         player.getInventory().clear();
@@ -334,20 +460,19 @@ public class PlayerListener implements Listener {
         }
 
         // バックアップを保存
-        playerBackups.put(playerUUID, backup);
+        registry.setBackup(playerUUID, backup);
         plugin.getLogger().fine("Backup created for player: " + player.getName());
     }
 
     private void restorePlayerDataFromBackup(Player player) {
         UUID playerUUID = player.getUniqueId();
 
-        if (!playerBackups.containsKey(playerUUID)) {
+        Map<String, Object> backup = registry.getBackup(playerUUID);
+        if (backup == null) {
             plugin.getLogger().warning("No backup found for player: " + player.getName());
             return;
         }
 
-        Map<String, Object> backup = playerBackups.get(playerUUID);
-
         try {
             // インベントリの復元
             if (backup.containsKey("inventory")) {
@@ -399,8 +524,8 @@ public class PlayerListener implements Listener {
         Player player = (Player) event.getEntity();
         UUID playerUUID = player.getUniqueId();
 
-        // 同期中の場合はアイテム拾得をキャンセル
-        if (syncingPlayers.contains(playerUUID)) {
+        // 同期中の場合はアイテム拾得をキャンセル（ロックを取らずに参照する）
+        if (registry.isSyncing(playerUUID)) {
             event.setCancelled(true);
         }
     }
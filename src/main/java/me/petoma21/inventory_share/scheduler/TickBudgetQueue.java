@@ -0,0 +1,139 @@
+package me.petoma21.inventory_share.scheduler;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+// メインスレッドで実行する処理をプレイヤーごとに溜め、1tick あたりの処理時間の上限内に収まる分ずつ実行する
+// 上限を超えた分は次の tick に回す（処理が進むよう、1tick に最低1件は実行する）
+public class TickBudgetQueue {
+
+    private final JavaPlugin plugin;
+    private final String name;
+    private volatile long budgetNanos;
+
+    // 登録順 = 待ち時間の長い順（this で同期する。登録は非同期スレッドからも行われる）
+    private final LinkedHashMap<UUID, Task> tasks = new LinkedHashMap<>();
+    private BukkitTask timer;
+
+    // 統計
+    private long executed = 0;
+    private long deferredTicks = 0;
+    private long maxTickNanos = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+
+    public TickBudgetQueue(JavaPlugin plugin, String name, double budgetMillis) {
+        this.plugin = plugin;
+        this.name = name;
+        setBudgetMillis(budgetMillis);
+    }
+
+    public void start() {
+        if (timer == null) {
+            timer = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+        }
+    }
+
+    // 停止する。未実行の処理は破棄される
+    public void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        synchronized (this) {
+            tasks.clear();
+        }
+    }
+
+    public void setBudgetMillis(double budgetMillis) {
+        this.budgetNanos = (long) (Math.max(0.0, budgetMillis) * 1_000_000L);
+    }
+
+    // 処理を登録する。同じプレイヤーの処理が待機中の場合は登録せず false を返す
+    // （待機中の処理が実行時点の状態を扱うため、重ねて登録する必要がない）
+    public synchronized boolean submit(UUID playerUUID, Runnable task) {
+        return tasks.putIfAbsent(playerUUID, new Task(task)) == null;
+    }
+
+    // 処理を登録する。同じプレイヤーの処理が待機中の場合は取り消して末尾に登録し直す
+    public synchronized void replace(UUID playerUUID, Runnable task) {
+        tasks.remove(playerUUID);
+        tasks.put(playerUUID, new Task(task));
+    }
+
+    // 待機中の処理を取り消す
+    public synchronized void cancel(UUID playerUUID) {
+        tasks.remove(playerUUID);
+    }
+
+    public synchronized int size() {
+        return tasks.size();
+    }
+
+    public synchronized String getStats() {
+        return "待機=" + tasks.size() +
+                ", 実行=" + executed +
+                ", 持ち越し=" + deferredTicks + " tick" +
+                ", 平均待ち時間=" + (executed > 0 ? totalWaitMillis / executed : 0) + "ms" +
+                ", 最大待ち時間=" + maxWaitMillis + "ms" +
+                ", 最大=" + String.format("%.2f", maxTickNanos / 1_000_000.0) + "ms/tick" +
+                ", 上限=" + String.format("%.2f", budgetNanos / 1_000_000.0) + "ms/tick";
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        int count = 0;
+        boolean remaining;
+        do {
+            Task task;
+            synchronized (this) {
+                Iterator<Map.Entry<UUID, Task>> iterator = tasks.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    remaining = false;
+                    break;
+                }
+                task = iterator.next().getValue();
+                iterator.remove();
+                remaining = !tasks.isEmpty();
+
+                long waited = System.currentTimeMillis() - task.enqueuedAt;
+                totalWaitMillis += waited;
+                maxWaitMillis = Math.max(maxWaitMillis, waited);
+            }
+
+            try {
+                task.runnable.run();
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, name + " の処理中にエラーが発生しました: " + e.getMessage(), e);
+            }
+            count++;
+        } while (remaining && System.nanoTime() - start < budgetNanos);
+
+        if (count == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            executed += count;
+            maxTickNanos = Math.max(maxTickNanos, elapsed);
+            if (remaining) {
+                deferredTicks++;
+            }
+        }
+    }
+
+    private static class Task {
+        private final Runnable runnable;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package me.petoma21.inventory_share.serialization;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// データベースから読み込んだ圧縮辞書の保持
+// 古い辞書で圧縮された行も読めるよう、全ての辞書を ID で保持する
+public class CompressionDictionaries {
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private final Map<String, Integer> activeIds = new ConcurrentHashMap<>();
+
+    public void put(int id, String dataType, byte[] dictionary) {
+        dictionaries.put(id, dictionary);
+        // 同じデータ種別では ID が最も大きい辞書を使用する
+        activeIds.merge(dataType, id, Math::max);
+    }
+
+    public byte[] get(int id) {
+        return dictionaries.get(id);
+    }
+
+    // 圧縮に使用する辞書の ID (辞書がなければ 0)
+    public int getActiveId(String dataType) {
+        return activeIds.getOrDefault(dataType, 0);
+    }
+
+    public int size() {
+        return dictionaries.size();
+    }
+
+    public void clear() {
+        dictionaries.clear();
+        activeIds.clear();
+    }
+}
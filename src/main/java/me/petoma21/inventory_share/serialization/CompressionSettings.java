@@ -0,0 +1,68 @@
+package me.petoma21.inventory_share.serialization;
+
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+// テーブルごとの圧縮設定
+public class CompressionSettings {
+
+    public static final CompressionSettings NONE = new CompressionSettings(CompressionType.NONE, 0, false, 0);
+
+    private final CompressionType type;
+    private final int level;
+    private final boolean useDictionary;
+    private final int minSize;
+
+    public CompressionSettings(CompressionType type, int level, boolean useDictionary, int minSize) {
+        this.type = type;
+        this.level = level;
+        this.useDictionary = useDictionary;
+        this.minSize = minSize;
+    }
+
+    // 設定値 (none / deflate / lz4 / zstd) から圧縮設定を作成
+    public static CompressionSettings fromName(String name, boolean useDictionary, int minSize, Logger logger) {
+        String normalized = name == null ? "deflate" : name.trim().toLowerCase();
+        switch (normalized) {
+            case "none":
+                return NONE;
+            case "deflate":
+                return new CompressionSettings(CompressionType.DEFLATE, Deflater.DEFAULT_COMPRESSION, useDictionary, minSize);
+            case "lz4":
+            case "fast":
+                // LZ4 ライブラリは同梱していないため、速度重視の deflate で代用する
+                logger.info("圧縮方式 " + normalized + " は deflate (速度優先) として扱われます");
+                return new CompressionSettings(CompressionType.DEFLATE, Deflater.BEST_SPEED, useDictionary, minSize);
+            case "zstd":
+            case "high":
+                // zstd ライブラリは同梱していないため、圧縮率重視の deflate で代用する
+                logger.info("圧縮方式 " + normalized + " は deflate (圧縮率優先) として扱われます");
+                return new CompressionSettings(CompressionType.DEFLATE, Deflater.BEST_COMPRESSION, useDictionary, minSize);
+            default:
+                logger.warning("無効な圧縮方式が指定されました: " + name + ". deflate を使用します。");
+                return new CompressionSettings(CompressionType.DEFLATE, Deflater.DEFAULT_COMPRESSION, useDictionary, minSize);
+        }
+    }
+
+    public CompressionType getType() {
+        return type;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isUseDictionary() {
+        return useDictionary;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionSettings{type=" + type + ", level=" + level +
+                ", dictionary=" + useDictionary + ", minSize=" + minSize + "}";
+    }
+}
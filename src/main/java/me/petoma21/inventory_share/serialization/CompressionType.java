@@ -0,0 +1,102 @@
+package me.petoma21.inventory_share.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 保存データの圧縮方式。id はペイロードのヘッダーに書き込まれるため変更しないこと
+public enum CompressionType {
+
+    NONE(0) {
+        @Override
+        public byte[] compress(byte[] data, int level, byte[] dictionary) {
+            return data;
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int originalLength, byte[] dictionary) {
+            return data;
+        }
+    },
+
+    DEFLATE(1) {
+        @Override
+        public byte[] compress(byte[] data, int level, byte[] dictionary) {
+            Deflater deflater = new Deflater(level);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data);
+                deflater.finish();
+
+                ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    output.write(buffer, 0, count);
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decompress(byte[] data, int originalLength, byte[] dictionary) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                byte[] result = new byte[originalLength];
+                int offset = 0;
+                while (offset < originalLength) {
+                    int count = inflater.inflate(result, offset, originalLength - offset);
+                    if (count == 0) {
+                        if (!inflater.needsDictionary()) {
+                            break;
+                        }
+                        if (dictionary == null) {
+                            throw new IOException("圧縮辞書が必要ですが見つかりません");
+                        }
+                        inflater.setDictionary(dictionary);
+                        continue;
+                    }
+                    offset += count;
+                }
+                if (offset != originalLength) {
+                    throw new IOException("展開後のサイズが一致しません: " + offset + " != " + originalLength);
+                }
+                return result;
+            } catch (DataFormatException e) {
+                throw new IOException("圧縮データが壊れています: " + e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final int id;
+
+    CompressionType(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public abstract byte[] compress(byte[] data, int level, byte[] dictionary) throws IOException;
+
+    public abstract byte[] decompress(byte[] data, int originalLength, byte[] dictionary) throws IOException;
+
+    public static CompressionType fromId(int id) throws IOException {
+        for (CompressionType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IOException("不明な圧縮方式です: id=" + id);
+    }
+}
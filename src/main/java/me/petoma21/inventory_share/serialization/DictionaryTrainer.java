@@ -0,0 +1,126 @@
+package me.petoma21.inventory_share.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// 既存の行から deflate 用の圧縮辞書を作成する
+// 多くのサンプルに共通して出現する8バイト列を多く含む区間を貪欲に選び、辞書に並べる
+public final class DictionaryTrainer {
+
+    // deflate が参照できる辞書の最大サイズ
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    // 学習に使うサンプルの合計サイズの上限
+    public static final int MAX_SAMPLE_BYTES = 2 * 1024 * 1024;
+
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+
+    private DictionaryTrainer() {
+    }
+
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        dictionarySize = Math.max(GRAM, Math.min(dictionarySize, MAX_DICTIONARY_SIZE));
+
+        // 各8バイト列が何個のサンプルに出現するかを数える
+        Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                long gram = gramAt(sample, i);
+                if (seen.add(gram)) {
+                    frequencies.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+
+        // 区間ごとのスコアを計算して候補にする
+        PriorityQueue<Segment> candidates = new PriorityQueue<>((a, b) -> Long.compare(b.score, a.score));
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int offset = 0; offset + GRAM <= sample.length; offset += SEGMENT / 2) {
+                int length = Math.min(SEGMENT, sample.length - offset);
+                long score = score(sample, offset, length, frequencies);
+                if (score > 0) {
+                    candidates.add(new Segment(s, offset, length, score));
+                }
+            }
+        }
+
+        // 採用済みの8バイト列を除外しながらスコアの高い区間を選ぶ
+        List<Segment> selected = new ArrayList<>();
+        int total = 0;
+        while (total < dictionarySize && !candidates.isEmpty()) {
+            Segment segment = candidates.poll();
+            byte[] sample = samples.get(segment.sample);
+            long current = score(sample, segment.offset, segment.length, frequencies);
+            if (current <= 0) {
+                continue;
+            }
+            Segment next = candidates.peek();
+            if (next != null && current < next.score) {
+                // スコアが下がっていれば再評価して候補に戻す
+                candidates.add(new Segment(segment.sample, segment.offset, segment.length, current));
+                continue;
+            }
+
+            selected.add(segment);
+            total += segment.length;
+            for (int i = segment.offset; i + GRAM <= segment.offset + segment.length; i++) {
+                frequencies.put(gramAt(sample, i), 0);
+            }
+        }
+
+        // deflate は辞書の末尾ほど短い距離で参照できるため、重要な区間を末尾に置く
+        byte[] dictionary = new byte[Math.min(total, dictionarySize)];
+        int position = dictionary.length;
+        for (Segment segment : selected) {
+            int length = Math.min(segment.length, position);
+            position -= length;
+            System.arraycopy(samples.get(segment.sample), segment.offset, dictionary, position, length);
+            if (position == 0) {
+                break;
+            }
+        }
+        return dictionary;
+    }
+
+    private static long score(byte[] sample, int offset, int length, Map<Long, Integer> frequencies) {
+        long score = 0;
+        for (int i = offset; i + GRAM <= offset + length; i++) {
+            int frequency = frequencies.getOrDefault(gramAt(sample, i), 0);
+            // 1つのサンプルにしか出ない列は辞書に入れても効果がない
+            if (frequency > 1) {
+                score += frequency;
+            }
+        }
+        return score;
+    }
+
+    private static long gramAt(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < GRAM; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+    private static final class Segment {
+        private final int sample;
+        private final int offset;
+        private final int length;
+        private final long score;
+
+        private Segment(int sample, int offset, int length, long score) {
+            this.sample = sample;
+            this.offset = offset;
+            this.length = length;
+            this.score = score;
+        }
+    }
+}
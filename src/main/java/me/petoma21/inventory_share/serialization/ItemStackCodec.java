@@ -0,0 +1,345 @@
+package me.petoma21.inventory_share.serialization;
+
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// ItemStack配列のバイナリ形式のエンコード/デコード
+// 形式: [MAGIC 2バイト][フォーマットバージョン 1バイト][スロット数 varint][各スロットの値]
+// ItemStack#serialize() のマップをタグ付きで書き出し、同じ文字列は2回目以降インデックス参照にする
+public final class ItemStackCodec {
+
+    // Base64 の文字集合に含まれないバイトを先頭に置き、旧形式と区別する
+    public static final int MAGIC_0 = 0xA1;
+    public static final int MAGIC_1 = 0x5E;
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_STRING_REF = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_FLOAT = 6;
+    private static final int TAG_TRUE = 7;
+    private static final int TAG_FALSE = 8;
+    private static final int TAG_SHORT = 9;
+    private static final int TAG_BYTE = 10;
+    private static final int TAG_LIST = 11;
+    private static final int TAG_MAP = 12;
+    private static final int TAG_SERIALIZABLE = 13;
+    private static final int TAG_BYTES = 14;
+    private static final int TAG_ITEM = 15;
+
+    private ItemStackCodec() {
+    }
+
+    public static byte[] encode(ItemStack[] items) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256 + items.length * 32);
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(FORMAT_VERSION);
+        writeVarInt(out, items.length);
+
+        Writer writer = new Writer(out);
+        for (ItemStack item : items) {
+            if (item == null) {
+                out.writeByte(TAG_NULL);
+            } else {
+                out.writeByte(TAG_ITEM);
+                writer.writeMap(item.serialize());
+            }
+        }
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    public static ItemStack[] decode(byte[] data) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        return decode(new ByteArrayInputStream(data));
+    }
+
+    // ResultSet#getBinaryStream から直接読み込む。先頭を見てバイナリ形式か旧Base64形式かを判別する
+    public static ItemStack[] decode(InputStream stream) throws IOException {
+        if (stream == null) {
+            return null;
+        }
+
+        BufferedInputStream input = stream instanceof BufferedInputStream
+                ? (BufferedInputStream) stream : new BufferedInputStream(stream);
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        if (first == -1) {
+            return null;
+        }
+
+        if (first != MAGIC_0 || second != MAGIC_1) {
+            input.reset();
+            return decodeLegacyBase64(new String(input.readAllBytes(), StandardCharsets.US_ASCII));
+        }
+
+        DataInputStream in = new DataInputStream(input);
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("未対応のインベントリデータ形式です: version=" + version);
+        }
+
+        int length = readVarInt(in);
+        ItemStack[] items = new ItemStack[length];
+        Reader reader = new Reader(in);
+        for (int i = 0; i < length; i++) {
+            int tag = in.readUnsignedByte();
+            if (tag == TAG_NULL) {
+                continue;
+            }
+            if (tag != TAG_ITEM) {
+                throw new IOException("不正なスロットタグです: " + tag);
+            }
+            items[i] = ItemStack.deserialize(reader.readMapBody());
+        }
+        return items;
+    }
+
+    public static boolean isBinaryFormat(byte[] data) {
+        return data != null && data.length >= 2
+                && (data[0] & 0xFF) == MAGIC_0 && (data[1] & 0xFF) == MAGIC_1;
+    }
+
+    // BukkitObjectOutputStream + Base64 で保存された旧形式のデータを読み込む
+    public static ItemStack[] decodeLegacyBase64(String data) throws IOException {
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64Coder.decodeLines(data));
+             BukkitObjectInputStream dataInput = new BukkitObjectInputStream(inputStream)) {
+
+            ItemStack[] items = new ItemStack[dataInput.readInt()];
+
+            for (int i = 0; i < items.length; i++) {
+                items[i] = (ItemStack) dataInput.readObject();
+            }
+
+            return items;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("旧形式のインベントリデータを復元できません: " + e.getMessage(), e);
+        }
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new IOException("varint が長すぎます");
+            }
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TAG_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TAG_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(TAG_SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(TAG_BYTES);
+                writeVarInt(out, bytes.length);
+                out.write(bytes);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(TAG_LIST);
+                writeVarInt(out, list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map) {
+                out.writeByte(TAG_MAP);
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof ConfigurationSerializable) {
+                ConfigurationSerializable serializable = (ConfigurationSerializable) value;
+                out.writeByte(TAG_SERIALIZABLE);
+                writeString(ConfigurationSerialization.getAlias(serializable.getClass()));
+                writeMap(serializable.serialize());
+            } else {
+                throw new IOException("シリアライズできない値の型です: " + value.getClass().getName());
+            }
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                out.writeByte(TAG_STRING_REF);
+                writeVarInt(out, index);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TAG_STRING);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                case TAG_STRING_REF:
+                    return readStringBody(tag);
+                case TAG_INT:
+                    return in.readInt();
+                case TAG_LONG:
+                    return in.readLong();
+                case TAG_DOUBLE:
+                    return in.readDouble();
+                case TAG_FLOAT:
+                    return in.readFloat();
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_SHORT:
+                    return in.readShort();
+                case TAG_BYTE:
+                    return in.readByte();
+                case TAG_BYTES: {
+                    byte[] bytes = new byte[readVarInt(in)];
+                    in.readFully(bytes);
+                    return bytes;
+                }
+                case TAG_LIST: {
+                    int size = readVarInt(in);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TAG_MAP:
+                    return readMapBody();
+                case TAG_SERIALIZABLE: {
+                    String alias = readString();
+                    // 子要素を先に復元してから親を復元する（YAMLの読み込みと同じ順序）
+                    Map<String, Object> map = readMapBody();
+                    map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, alias);
+                    return ConfigurationSerialization.deserializeObject(map);
+                }
+                case TAG_ITEM:
+                    return ItemStack.deserialize(readMapBody());
+                default:
+                    throw new IOException("不明な値タグです: " + tag);
+            }
+        }
+
+        private Map<String, Object> readMapBody() throws IOException {
+            int size = readVarInt(in);
+            Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 2));
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        private String readString() throws IOException {
+            int tag = in.readUnsignedByte();
+            if (tag != TAG_STRING && tag != TAG_STRING_REF) {
+                throw new IOException("文字列タグが必要です: " + tag);
+            }
+            return readStringBody(tag);
+        }
+
+        private String readStringBody(int tag) throws IOException {
+            if (tag == TAG_STRING_REF) {
+                int index = readVarInt(in);
+                if (index < 0 || index >= strings.size()) {
+                    throw new IOException("不正な文字列参照です: " + index);
+                }
+                return strings.get(index);
+            }
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package me.petoma21.inventory_share.serialization;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// ItemStackCodec の出力に圧縮ステージを重ねたもの
+// 圧縮形式: [MAGIC_0][ENVELOPE_MAGIC_1][圧縮方式ID 1バイト][辞書ID varint][展開後サイズ varint][圧縮データ]
+// 非圧縮の行 (ItemStackCodec 形式・旧Base64形式) もそのまま読み込めるため、混在しても問題ない
+public class PayloadCodec {
+
+    public static final int ENVELOPE_MAGIC_1 = 0x5F;
+
+    // 展開後サイズの上限 (壊れたヘッダーによる巨大な確保を防ぐ)
+    private static final int MAX_RAW_SIZE = 64 * 1024 * 1024;
+
+    private final String dataType;
+    private final CompressionSettings settings;
+    private final CompressionDictionaries dictionaries;
+
+    public PayloadCodec(String dataType, CompressionSettings settings, CompressionDictionaries dictionaries) {
+        this.dataType = dataType;
+        this.settings = settings;
+        this.dictionaries = dictionaries;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public CompressionSettings getSettings() {
+        return settings;
+    }
+
+    public byte[] encode(ItemStack[] items) throws IOException {
+        return compress(ItemStackCodec.encode(items));
+    }
+
+    public byte[] compress(byte[] raw) throws IOException {
+        if (settings.getType() == CompressionType.NONE || raw.length < settings.getMinSize()) {
+            return raw;
+        }
+
+        int dictionaryId = settings.isUseDictionary() ? dictionaries.getActiveId(dataType) : 0;
+        byte[] dictionary = dictionaryId != 0 ? dictionaries.get(dictionaryId) : null;
+        if (dictionary == null) {
+            dictionaryId = 0;
+        }
+
+        byte[] compressed = settings.getType().compress(raw, settings.getLevel(), dictionary);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(compressed.length + 16);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(ItemStackCodec.MAGIC_0);
+        out.writeByte(ENVELOPE_MAGIC_1);
+        out.writeByte(settings.getType().getId());
+        ItemStackCodec.writeVarInt(out, dictionaryId);
+        ItemStackCodec.writeVarInt(out, raw.length);
+        out.write(compressed);
+        out.flush();
+
+        // 圧縮しても小さくならない場合は非圧縮で保存
+        return buffer.size() < raw.length ? buffer.toByteArray() : raw;
+    }
+
+    public ItemStack[] decode(InputStream stream) throws IOException {
+        if (stream == null) {
+            return null;
+        }
+
+        BufferedInputStream input = new BufferedInputStream(stream);
+        if (!isEnvelope(input)) {
+            return ItemStackCodec.decode(input);
+        }
+        return ItemStackCodec.decode(readEnvelope(input));
+    }
+
+    // 圧縮を解除した ItemStackCodec 形式のバイト列を返す (旧形式の行はそのまま返す)
+    public byte[] decompress(InputStream stream) throws IOException {
+        if (stream == null) {
+            return null;
+        }
+
+        BufferedInputStream input = new BufferedInputStream(stream);
+        if (!isEnvelope(input)) {
+            return input.readAllBytes();
+        }
+        return readEnvelope(input);
+    }
+
+    private boolean isEnvelope(BufferedInputStream input) throws IOException {
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+        return first == ItemStackCodec.MAGIC_0 && second == ENVELOPE_MAGIC_1;
+    }
+
+    private byte[] readEnvelope(BufferedInputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        in.skipBytes(2);
+        CompressionType type = CompressionType.fromId(in.readUnsignedByte());
+        int dictionaryId = ItemStackCodec.readVarInt(in);
+        int rawLength = ItemStackCodec.readVarInt(in);
+        if (rawLength < 0 || rawLength > MAX_RAW_SIZE) {
+            throw new IOException("不正な展開後サイズです: " + rawLength);
+        }
+
+        byte[] dictionary = null;
+        if (dictionaryId != 0) {
+            dictionary = dictionaries.get(dictionaryId);
+            if (dictionary == null) {
+                throw new IOException("圧縮辞書 #" + dictionaryId + " が見つかりません");
+            }
+        }
+
+        return type.decompress(in.readAllBytes(), rawLength, dictionary);
+    }
+}
@@ -0,0 +1,95 @@
+package me.petoma21.inventory_share.serialization;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// スロット単位の差分の形式
+// 形式: [MAGIC 1バイト][スロット数 varint][変更数 varint]{[スロット番号 varint][長さ varint][ItemStackCodec形式の1スロット]}
+public final class SlotDeltaCodec {
+
+    private static final int MAGIC = 0x44;
+
+    private SlotDeltaCodec() {
+    }
+
+    // 各スロットを個別にエンコードする（差分の比較と書き込みに使う）
+    public static byte[][] encodeSlots(ItemStack[] items) throws IOException {
+        byte[][] slots = new byte[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            slots[i] = ItemStackCodec.encode(new ItemStack[]{items[i]});
+        }
+        return slots;
+    }
+
+    // スロットごとのエンコード結果からフィンガープリントを計算する
+    public static long fingerprint(byte[][] slots) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte[] slot : slots) {
+            hash = (hash ^ slot.length) * 0x100000001b3L;
+            for (byte b : slot) {
+                hash ^= (b & 0xFF);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    // 変更のあったスロットだけを取り出す
+    public static Map<Integer, byte[]> diff(byte[][] baseline, byte[][] current) {
+        Map<Integer, byte[]> changes = new LinkedHashMap<>();
+        for (int i = 0; i < current.length; i++) {
+            if (i >= baseline.length || !Arrays.equals(baseline[i], current[i])) {
+                changes.put(i, current[i]);
+            }
+        }
+        return changes;
+    }
+
+    public static byte[] encodeDelta(int slotCount, Map<Integer, byte[]> changes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(MAGIC);
+        ItemStackCodec.writeVarInt(out, slotCount);
+        ItemStackCodec.writeVarInt(out, changes.size());
+        for (Map.Entry<Integer, byte[]> change : changes.entrySet()) {
+            ItemStackCodec.writeVarInt(out, change.getKey());
+            ItemStackCodec.writeVarInt(out, change.getValue().length);
+            out.write(change.getValue());
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    // 差分を配列に適用する。スロット数が変わる場合は新しい配列を返す
+    public static ItemStack[] applyDelta(ItemStack[] base, byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (in.readUnsignedByte() != MAGIC) {
+            throw new IOException("不正な差分データです");
+        }
+
+        int slotCount = ItemStackCodec.readVarInt(in);
+        ItemStack[] items = base == null ? new ItemStack[slotCount]
+                : base.length == slotCount ? base : Arrays.copyOf(base, slotCount);
+
+        int changeCount = ItemStackCodec.readVarInt(in);
+        for (int i = 0; i < changeCount; i++) {
+            int slot = ItemStackCodec.readVarInt(in);
+            byte[] encoded = new byte[ItemStackCodec.readVarInt(in)];
+            in.readFully(encoded);
+            if (slot < 0 || slot >= slotCount) {
+                throw new IOException("不正なスロット番号です: " + slot);
+            }
+            ItemStack[] decoded = ItemStackCodec.decode(encoded);
+            items[slot] = decoded != null && decoded.length > 0 ? decoded[0] : null;
+        }
+        return items;
+    }
+}
@@ -0,0 +1,128 @@
+package me.petoma21.inventory_share.storage;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// インベントリが変化したプレイヤーと、最後に保存/読み込みした内容のフィンガープリントを記録する
+// 自動保存は変化したプレイヤーだけを対象にし、内容が同じなら書き込み自体を省略する
+public class DirtyTracker {
+
+    public static final String INVENTORY = "inventory";
+    public static final String ENDER_CHEST = "enderchest";
+
+    private final Set<UUID> dirtyInventories = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> dirtyEnderChests = ConcurrentHashMap.newKeySet();
+
+    // データベース上の内容と一致していることが分かっているフィンガープリント
+    private final Map<UUID, Long> inventoryFingerprints = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> enderChestFingerprints = new ConcurrentHashMap<>();
+
+    // 差分保存モードで、データベース上のスロットごとの内容と差分の件数
+    private final Map<UUID, SlotBaseline> slotBaselines = new ConcurrentHashMap<>();
+
+    public void markInventoryDirty(UUID playerUUID) {
+        dirtyInventories.add(playerUUID);
+    }
+
+    public void markEnderChestDirty(UUID playerUUID) {
+        dirtyEnderChests.add(playerUUID);
+    }
+
+    public boolean isInventoryDirty(UUID playerUUID) {
+        return dirtyInventories.contains(playerUUID);
+    }
+
+    public boolean isEnderChestDirty(UUID playerUUID) {
+        return dirtyEnderChests.contains(playerUUID);
+    }
+
+    // 自動保存で取得する直前に呼び出す。取得中の変化は再度マークされる
+    public boolean clearInventoryDirty(UUID playerUUID) {
+        return dirtyInventories.remove(playerUUID);
+    }
+
+    public boolean clearEnderChestDirty(UUID playerUUID) {
+        return dirtyEnderChests.remove(playerUUID);
+    }
+
+    // 前回と同じ内容であれば true（書き込み不要）
+    public boolean isUnchanged(UUID playerUUID, String dataType, long fingerprint) {
+        Long known = fingerprints(dataType).get(playerUUID);
+        return known != null && known == fingerprint;
+    }
+
+    // 記録されていない場合は null
+    public Long getFingerprint(UUID playerUUID, String dataType) {
+        return fingerprints(dataType).get(playerUUID);
+    }
+
+    public void recordFingerprint(UUID playerUUID, String dataType, long fingerprint) {
+        fingerprints(dataType).put(playerUUID, fingerprint);
+    }
+
+    public void forgetFingerprint(UUID playerUUID, String dataType) {
+        fingerprints(dataType).remove(playerUUID);
+    }
+
+    public SlotBaseline getSlotBaseline(UUID playerUUID) {
+        return slotBaselines.get(playerUUID);
+    }
+
+    public void recordSlotBaseline(UUID playerUUID, byte[][] slots, int deltaCount) {
+        slotBaselines.put(playerUUID, new SlotBaseline(slots, deltaCount));
+    }
+
+    public void forgetSlotBaseline(UUID playerUUID) {
+        slotBaselines.remove(playerUUID);
+    }
+
+    // 退出後は他のサーバーで内容が変わるため、記録を破棄する
+    public void forget(UUID playerUUID) {
+        dirtyInventories.remove(playerUUID);
+        dirtyEnderChests.remove(playerUUID);
+        inventoryFingerprints.remove(playerUUID);
+        enderChestFingerprints.remove(playerUUID);
+        slotBaselines.remove(playerUUID);
+    }
+
+    public int getDirtyCount() {
+        Set<UUID> union = new HashSet<>(dirtyInventories);
+        union.addAll(dirtyEnderChests);
+        return union.size();
+    }
+
+    private Map<UUID, Long> fingerprints(String dataType) {
+        return ENDER_CHEST.equals(dataType) ? enderChestFingerprints : inventoryFingerprints;
+    }
+
+    // 64ビット FNV-1a ハッシュ
+    public static long fingerprint(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static class SlotBaseline {
+        private final byte[][] slots;
+        private final int deltaCount;
+
+        public SlotBaseline(byte[][] slots, int deltaCount) {
+            this.slots = slots;
+            this.deltaCount = deltaCount;
+        }
+
+        public byte[][] getSlots() {
+            return slots;
+        }
+
+        public int getDeltaCount() {
+            return deltaCount;
+        }
+    }
+}
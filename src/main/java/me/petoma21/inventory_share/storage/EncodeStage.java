@@ -0,0 +1,102 @@
+package me.petoma21.inventory_share.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 書き込み前のエンコード（シリアライズ）を複数のコアで並列に行う
+// 書き込みキューがまとめて書き込む直前に呼び出し、エンコード結果は PlayerState にキャッシュされる
+// 書き込みスレッドはデータベースの待ち時間が大半のため、CPU を使う処理だけをここで先に済ませる
+// 読み込み時のデコードを並行して行う場合もこのスレッドを使う（共通の ForkJoinPool は他のプラグインと共有のため使わない）
+public class EncodeStage {
+
+    private final Logger logger;
+    private final ForkJoinPool pool;
+
+    // 統計
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    public EncodeStage(Logger logger, int parallelism) {
+        this.logger = logger;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("AIS-Encode-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }, null, false);
+    }
+
+    // 全ての状態を並列にエンコードし、完了まで待つ
+    // エンコードに失敗した状態はそのまま残し、書き込み時にあらためてエンコードしてエラーを記録させる
+    public void encodeAll(Collection<PlayerState> states, boolean slotMode) {
+        if (states.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> states.parallelStream().forEach(state -> encode(state, slotMode))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "並列エンコード中にエラーが発生しました: " + e.getMessage(), e);
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    // このスレッドで実行する Executor。停止後は呼び出しスレッドで実行する
+    public Executor getExecutor() {
+        return task -> {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        };
+    }
+
+    public String getStats() {
+        long count = snapshots.get();
+        long total = bytes.get();
+        double seconds = busyNanos.get() / 1_000_000_000.0;
+        return "並列数=" + pool.getParallelism() +
+                ", エンコード=" + count +
+                ", " + (seconds > 0 ? Math.round(count / seconds) : 0) + " 件/秒" +
+                ", " + (seconds > 0 ? Math.round(total / 1024.0 / seconds) : 0) + " KB/秒";
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void encode(PlayerState state, boolean slotMode) {
+        try {
+            long size = 0;
+            if (state.getInventory() != null) {
+                if (slotMode) {
+                    for (byte[] slot : state.getEncodedInventorySlots()) {
+                        size += slot.length;
+                    }
+                } else {
+                    size += state.getEncodedInventory().length;
+                }
+            }
+            if (state.getEnderChest() != null) {
+                size += state.getEncodedEnderChest().length;
+            }
+            snapshots.incrementAndGet();
+            bytes.addAndGet(size);
+        } catch (IOException | RuntimeException e) {
+            // 書き込み時にあらためてエンコードされる
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package me.petoma21.inventory_share.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// このサーバーに接続しているプレイヤーごとの同期の段階を管理する
+// PRELOGIN → LOADING → APPLYING → ACTIVE → SAVING → GONE の順に進み、段階の変更は比較して置き換える (CAS) ため
+// メインスレッド・ストレージのスレッド・ログイン前の非同期スレッドのどこから呼び出してもよい
+// 参照はロックを取らないため、アイテムの拾得など頻繁に発生するイベントから呼び出してもよい
+public class PlayerSessionRegistry {
+
+    public enum Phase {
+        // ログイン前の先読み中（まだワールドにはいない）
+        PRELOGIN,
+        // 参加後、データベースから読み込み中
+        LOADING,
+        // 読み込みが終わり、メインスレッドでの適用待ち
+        APPLYING,
+        // 同期が完了し、保存してよい状態
+        ACTIVE,
+        // 退出時の保存中
+        SAVING,
+        // 退出済み（登録は削除される）
+        GONE;
+
+        // 同期処理中（データベースの内容をまだ適用していない）の場合は true。この間は保存もアイテムの拾得も行わない
+        public boolean isSyncing() {
+            return this == PRELOGIN || this == LOADING || this == APPLYING;
+        }
+    }
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    public Phase getPhase(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry != null ? entry.phase.get() : Phase.GONE;
+    }
+
+    public boolean isSyncing(UUID playerUUID) {
+        return getPhase(playerUUID).isSyncing();
+    }
+
+    public boolean isActive(UUID playerUUID) {
+        return getPhase(playerUUID) == Phase.ACTIVE;
+    }
+
+    // ログイン前の先読みを始める。同じ UUID の接続が残っている場合（二重ログインで旧接続の退出前）は変更しない
+    public void preLogin(UUID playerUUID) {
+        entries.putIfAbsent(playerUUID, new Entry(Phase.PRELOGIN));
+    }
+
+    // ログインが拒否された場合に、先読みの登録を取り消す
+    public void abortPreLogin(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null && entry.phase.compareAndSet(Phase.PRELOGIN, Phase.GONE)) {
+            entries.remove(playerUUID, entry);
+        }
+    }
+
+    // 参加時に読み込みを始める。前回の退出時の保存が終わっていない場合も、新しい登録に置き換える
+    // （保存と読み込みはストレージのスレッドで同じプレイヤーの順に実行されるため、読み込みは保存の後になる）
+    public void startLoading(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null && entry.phase.compareAndSet(Phase.PRELOGIN, Phase.LOADING)) {
+            return;
+        }
+        entries.put(playerUUID, new Entry(Phase.LOADING));
+    }
+
+    // 段階が from の場合のみ to に進め、true を返す（退出などで段階が変わっていた場合は false）
+    public boolean transition(UUID playerUUID, Phase from, Phase to) {
+        Entry entry = entries.get(playerUUID);
+        if (entry == null || !entry.phase.compareAndSet(from, to)) {
+            return false;
+        }
+        if (to == Phase.ACTIVE || to == Phase.GONE) {
+            entry.backup = null;
+        }
+        if (to == Phase.GONE) {
+            entries.remove(playerUUID, entry);
+        }
+        return true;
+    }
+
+    // 読み込み中・適用待ちの段階から ACTIVE に進める（同期に失敗した場合も含む）。退出済みの場合は false
+    public boolean activate(UUID playerUUID) {
+        return transition(playerUUID, Phase.APPLYING, Phase.ACTIVE)
+                || transition(playerUUID, Phase.LOADING, Phase.ACTIVE);
+    }
+
+    // 退出時に呼び出し、退出前の段階を返す
+    // 同期が完了していた (ACTIVE) 場合は SAVING に進め、保存後に finishSaving を呼び出すこと
+    // 同期処理中だった場合はそのまま GONE にする（読み込み・適用は段階の変更に失敗して中止される）
+    public Phase beginQuit(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        if (entry == null) {
+            return Phase.GONE;
+        }
+        while (true) {
+            Phase current = entry.phase.get();
+            if (current == Phase.ACTIVE) {
+                if (entry.phase.compareAndSet(Phase.ACTIVE, Phase.SAVING)) {
+                    return current;
+                }
+            } else if (current.isSyncing()) {
+                if (entry.phase.compareAndSet(current, Phase.GONE)) {
+                    entry.backup = null;
+                    entries.remove(playerUUID, entry);
+                    return current;
+                }
+            } else {
+                return current;
+            }
+        }
+    }
+
+    // 退出時の保存が終わった（または保存しなかった）
+    public void finishSaving(UUID playerUUID) {
+        transition(playerUUID, Phase.SAVING, Phase.GONE);
+    }
+
+    // 同期前の内容のバックアップ（メインスレッドでのみ使用する）。ACTIVE または GONE になると破棄される
+    public void setBackup(UUID playerUUID, Map<String, Object> backup) {
+        Entry entry = entries.get(playerUUID);
+        if (entry != null) {
+            entry.backup = backup;
+        }
+    }
+
+    public Map<String, Object> getBackup(UUID playerUUID) {
+        Entry entry = entries.get(playerUUID);
+        return entry != null ? entry.backup : null;
+    }
+
+    public String getStats() {
+        Map<Phase, Integer> counts = new EnumMap<>(Phase.class);
+        for (Entry entry : entries.values()) {
+            counts.merge(entry.phase.get(), 1, Integer::sum);
+        }
+        return "先読み=" + counts.getOrDefault(Phase.PRELOGIN, 0) +
+                ", 読み込み中=" + counts.getOrDefault(Phase.LOADING, 0) +
+                ", 適用待ち=" + counts.getOrDefault(Phase.APPLYING, 0) +
+                ", 同期済み=" + counts.getOrDefault(Phase.ACTIVE, 0) +
+                ", 保存中=" + counts.getOrDefault(Phase.SAVING, 0);
+    }
+
+    private static class Entry {
+        private final AtomicReference<Phase> phase;
+        private volatile Map<String, Object> backup;
+
+        private Entry(Phase phase) {
+            this.phase = new AtomicReference<>(phase);
+        }
+    }
+}
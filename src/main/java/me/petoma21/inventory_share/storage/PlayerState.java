@@ -0,0 +1,206 @@
+package me.petoma21.inventory_share.storage;
+
+import me.petoma21.inventory_share.serialization.ItemStackCodec;
+import me.petoma21.inventory_share.serialization.SlotDeltaCodec;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+
+// データベースから読み込んだプレイヤーデータ（インベントリ・エンダーチェスト・所持金）
+// 行が存在しなかった項目は null になる
+public class PlayerState {
+
+    private final ItemStack[] inventory;
+    private final ItemStack[] enderChest;
+    private final Double balance;
+
+    // データベースに保存されている内容のフィンガープリント（読み込み時のみ設定される）
+    private final Long inventoryFingerprint;
+    private final Long enderChestFingerprint;
+
+    // ベースに適用したインベントリ差分の件数（差分保存モードの読み込み時のみ設定される）
+    private final int inventoryDeltaCount;
+
+    // 読み込んだ行の更新状況（読み込み時のみ設定される）。同じ値であればデータベースは更新されていない
+    private final String stamp;
+
+    // エンコード前のサイズ見積もりに使う、アイテム1個あたりのエンコード後のバイト数
+    private static final int ESTIMATED_ITEM_BYTES = 64;
+
+    // エンコード結果のキャッシュ（内容は変わらないため一度だけ計算する。EncodeStage で書き込み前に並列に計算される）
+    // 同じ配列から作り直した状態とは reuseEncodings で共有する（this で同期し、必要になった時点で作成する）
+    private Encodings inventoryEncodings;
+    private Encodings enderChestEncodings;
+
+    public PlayerState(ItemStack[] inventory, ItemStack[] enderChest, Double balance) {
+        this(inventory, enderChest, balance, null, null, 0, null);
+    }
+
+    public PlayerState(ItemStack[] inventory, ItemStack[] enderChest, Double balance,
+                       Long inventoryFingerprint, Long enderChestFingerprint, int inventoryDeltaCount,
+                       String stamp) {
+        this.inventory = inventory;
+        this.enderChest = enderChest;
+        this.balance = balance;
+        this.inventoryFingerprint = inventoryFingerprint;
+        this.enderChestFingerprint = enderChestFingerprint;
+        this.inventoryDeltaCount = inventoryDeltaCount;
+        this.stamp = stamp;
+    }
+
+    public ItemStack[] getInventory() {
+        return inventory;
+    }
+
+    public ItemStack[] getEnderChest() {
+        return enderChest;
+    }
+
+    public Double getBalance() {
+        return balance;
+    }
+
+    public Long getInventoryFingerprint() {
+        return inventoryFingerprint;
+    }
+
+    public Long getEnderChestFingerprint() {
+        return enderChestFingerprint;
+    }
+
+    public int getInventoryDeltaCount() {
+        return inventoryDeltaCount;
+    }
+
+    public String getStamp() {
+        return stamp;
+    }
+
+    // ItemStackCodec 形式のインベントリ（インベントリがない場合は null）
+    public byte[] getEncodedInventory() throws IOException {
+        if (inventory == null) {
+            return null;
+        }
+        Encodings encodings = inventoryEncodings();
+        byte[] encoded = encodings.full;
+        if (encoded == null) {
+            encoded = ItemStackCodec.encode(inventory);
+            encodings.full = encoded;
+        }
+        return encoded;
+    }
+
+    // スロットごとにエンコードしたインベントリ（差分保存モード用）
+    public byte[][] getEncodedInventorySlots() throws IOException {
+        if (inventory == null) {
+            return null;
+        }
+        Encodings encodings = inventoryEncodings();
+        byte[][] encoded = encodings.slots;
+        if (encoded == null) {
+            encoded = SlotDeltaCodec.encodeSlots(inventory);
+            encodings.slots = encoded;
+        }
+        return encoded;
+    }
+
+    public byte[] getEncodedEnderChest() throws IOException {
+        if (enderChest == null) {
+            return null;
+        }
+        Encodings encodings = enderChestEncodings();
+        byte[] encoded = encodings.full;
+        if (encoded == null) {
+            encoded = ItemStackCodec.encode(enderChest);
+            encodings.full = encoded;
+        }
+        return encoded;
+    }
+
+    // エンコード後のおおよそのサイズ（バイト）。エンコードは行わない
+    // 計算済みのエンコード結果があればその長さを使い、なければアイテム数から見積もる
+    public long estimateEncodedSize() {
+        long size = 0;
+        if (inventory != null) {
+            Encodings encodings = inventoryEncodings();
+            byte[] encoded = encodings.full;
+            byte[][] slots = encodings.slots;
+            if (encoded != null) {
+                size += encoded.length;
+            } else if (slots != null) {
+                for (byte[] slot : slots) {
+                    size += slot.length;
+                }
+            } else {
+                size += estimateItems(inventory);
+            }
+        }
+        if (enderChest != null) {
+            byte[] encoded = enderChestEncodings().full;
+            size += encoded != null ? encoded.length : estimateItems(enderChest);
+        }
+        return size;
+    }
+
+    // アイテム1個あたりの平均的なエンコード後のサイズで見積もる
+    private static long estimateItems(ItemStack[] items) {
+        long size = items.length;
+        for (ItemStack item : items) {
+            if (item != null) {
+                size += ESTIMATED_ITEM_BYTES;
+            }
+        }
+        return size;
+    }
+
+    // source と同じ配列を持つ項目について、エンコード結果のキャッシュを source と共有する（this を返す）
+    // 統合・同期項目の絞り込みで作り直した状態でも、EncodeStage で並列に計算した結果を書き込みに使い、
+    // 書き込み時に計算した結果も元の状態（スナップショットキャッシュのサイズ計算等）から参照できる
+    // 作成直後（エンコード前）に呼び出すこと。既に共有している項目は変更しない
+    public PlayerState reuseEncodings(PlayerState source) {
+        if (source == null || source == this) {
+            return this;
+        }
+        if (inventory != null && inventory == source.inventory) {
+            Encodings shared = source.inventoryEncodings();
+            synchronized (this) {
+                if (inventoryEncodings == null) {
+                    inventoryEncodings = shared;
+                }
+            }
+        }
+        if (enderChest != null && enderChest == source.enderChest) {
+            Encodings shared = source.enderChestEncodings();
+            synchronized (this) {
+                if (enderChestEncodings == null) {
+                    enderChestEncodings = shared;
+                }
+            }
+        }
+        return this;
+    }
+
+    private synchronized Encodings inventoryEncodings() {
+        if (inventoryEncodings == null) {
+            inventoryEncodings = new Encodings();
+        }
+        return inventoryEncodings;
+    }
+
+    private synchronized Encodings enderChestEncodings() {
+        if (enderChestEncodings == null) {
+            enderChestEncodings = new Encodings();
+        }
+        return enderChestEncodings;
+    }
+
+    public boolean isEmpty() {
+        return inventory == null && enderChest == null && balance == null;
+    }
+
+    // 1つのアイテム配列のエンコード結果
+    private static class Encodings {
+        private volatile byte[] full;
+        private volatile byte[][] slots;
+    }
+}
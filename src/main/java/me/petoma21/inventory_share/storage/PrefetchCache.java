@@ -0,0 +1,68 @@
+package me.petoma21.inventory_share.storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// ログイン前 (AsyncPlayerPreLoginEvent) に読み込んだプレイヤーデータを、参加時まで保持する
+// 参加しなかったプレイヤーの分は有効期限で破棄される
+public class PrefetchCache {
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long ttlMillis;
+
+    public PrefetchCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void put(UUID playerUUID, PlayerState state) {
+        evictExpired();
+        entries.put(playerUUID, new Entry(state, System.currentTimeMillis()));
+    }
+
+    // 取り出して削除する。存在しないか期限切れの場合は null
+    public PlayerState take(UUID playerUUID) {
+        Entry entry = entries.remove(playerUUID);
+        if (entry == null || entry.isExpired(System.currentTimeMillis(), ttlMillis)) {
+            return null;
+        }
+        return entry.state;
+    }
+
+    public void invalidate(UUID playerUUID) {
+        entries.remove(playerUUID);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now, ttlMillis)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final PlayerState state;
+        private final long createdAt;
+
+        private Entry(PlayerState state, long createdAt) {
+            this.state = state;
+            this.createdAt = createdAt;
+        }
+
+        private boolean isExpired(long now, long ttlMillis) {
+            return now - createdAt > ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package me.petoma21.inventory_share.storage;
+
+import me.petoma21.inventory_share.serialization.ItemStackCodec;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// 保存要求を先にローカルのファイルへ追記し、バックグラウンドのスレッドが記録順にデータベースへ反映する
+// データベースが遅い・停止している間も保存はディスクへの書き込みだけで完了し、クラッシュ後は起動時に未反映の記録から再開する
+// ファイルは一定サイズごとのセグメントに分け、古いものから順に、全記録の反映が終わったセグメントを削除する
+public class SaveJournal {
+
+    // プレイヤーの未反映の記録がなくなった時に呼ばれる（反映スレッドから）
+    public interface DrainListener {
+        void drained(UUID playerUUID);
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // 記録の形式: [本体の長さ(4)][本体の CRC32(4)][本体]
+    // 本体: [種類(1)][通し番号(8)] + 保存の場合 [UUID(16)][フラグ(1)][インベントリ][エンダーチェスト][所持金(8)]
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_ACK = 2;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final int FLAG_INVENTORY = 1;
+    private static final int FLAG_ENDER_CHEST = 2;
+    private static final int FLAG_BALANCE = 4;
+
+    private static final long MAX_RETRY_DELAY = 30000L;
+
+    private final File directory;
+    private final Logger logger;
+    private final long segmentBytes;
+    private final boolean fsync;
+
+    // 以下は this で同期する
+    private final NavigableMap<Long, Entry> pending = new TreeMap<>();
+    private final Map<UUID, Integer> pendingPerPlayer = new HashMap<>();
+    // セグメント番号 -> 未反映の記録数
+    private final NavigableMap<Long, Integer> segments = new TreeMap<>();
+    private FileChannel active;
+    private long activeSegment;
+    private long nextSequence = 1;
+    private boolean stopping = false;
+
+    private WriteBehindQueue.Writer writer;
+    private DrainListener listener;
+    private Thread drainer;
+
+    // 統計
+    private long appended = 0;
+    private long drained = 0;
+    private long failures = 0;
+
+    public SaveJournal(File directory, Logger logger, long segmentBytes, boolean fsync) {
+        this.directory = directory;
+        this.logger = logger;
+        this.segmentBytes = Math.max(64L * 1024L, segmentBytes);
+        this.fsync = fsync;
+    }
+
+    // 既存のセグメントを読み込み、未反映の記録があるプレイヤーを返す
+    // 途中で途切れた・壊れた記録（書き込み中のクラッシュ）以降は切り捨てる
+    public synchronized List<UUID> open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("ジャーナルのディレクトリを作成できません: " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+
+        List<Entry> recovered = new ArrayList<>();
+        Set<Long> acked = new HashSet<>();
+        for (File file : files) {
+            long segment = segmentNumber(file);
+            if (segment < 0) {
+                continue;
+            }
+            segments.put(segment, 0);
+            readSegment(file, segment, recovered, acked);
+        }
+
+        for (Entry entry : recovered) {
+            nextSequence = Math.max(nextSequence, entry.sequence + 1);
+            if (!acked.contains(entry.sequence)) {
+                addPending(entry);
+            }
+        }
+        for (long sequence : acked) {
+            nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+
+        // 追記は常に新しいセグメントに行う
+        activeSegment = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        openActiveSegment();
+        deleteDrainedSegments();
+
+        if (!pending.isEmpty()) {
+            logger.warning("ジャーナルに未反映の保存データが " + pending.size() + " 件あります。データベースへ反映します。");
+        }
+        return new ArrayList<>(pendingPerPlayer.keySet());
+    }
+
+    // 反映スレッドを開始する
+    public synchronized void start(WriteBehindQueue.Writer writer, DrainListener listener) {
+        this.writer = writer;
+        this.listener = listener;
+        drainer = new Thread(this::drainLoop, "AIS-Journal-Drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // 保存要求を記録する。ディスクへの書き込みが完了した時点で true を返す
+    public boolean append(UUID playerUUID, PlayerState state) {
+        // エンコードはロックの外で行う
+        byte[] inventory;
+        byte[] enderChest;
+        try {
+            inventory = state.getEncodedInventory();
+            enderChest = state.getEncodedEnderChest();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, playerUUID + " の保存データをジャーナルに記録できませんでした: " + e.getMessage(), e);
+            return false;
+        }
+
+        int flags = (inventory != null ? FLAG_INVENTORY : 0)
+                | (enderChest != null ? FLAG_ENDER_CHEST : 0)
+                | (state.getBalance() != null ? FLAG_BALANCE : 0);
+        int bodySize = 1 + 8 + 16 + 1
+                + (inventory != null ? 4 + inventory.length : 0)
+                + (enderChest != null ? 4 + enderChest.length : 0)
+                + (state.getBalance() != null ? 8 : 0);
+
+        synchronized (this) {
+            if (stopping || active == null) {
+                return false;
+            }
+
+            long sequence = nextSequence++;
+            ByteBuffer body = ByteBuffer.allocate(bodySize);
+            body.put(TYPE_SAVE);
+            body.putLong(sequence);
+            body.putLong(playerUUID.getMostSignificantBits());
+            body.putLong(playerUUID.getLeastSignificantBits());
+            body.put((byte) flags);
+            if (inventory != null) {
+                body.putInt(inventory.length);
+                body.put(inventory);
+            }
+            if (enderChest != null) {
+                body.putInt(enderChest.length);
+                body.put(enderChest);
+            }
+            if (state.getBalance() != null) {
+                body.putDouble(state.getBalance());
+            }
+
+            try {
+                writeRecord(body.array());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, playerUUID + " の保存データをジャーナルに記録できませんでした: " + e.getMessage(), e);
+                return false;
+            }
+
+            addPending(new Entry(sequence, activeSegment, playerUUID, state));
+            appended++;
+            try {
+                rollIfNeeded();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "ジャーナルのセグメントを切り替えられませんでした: " + e.getMessage(), e);
+            }
+            notifyAll();
+            return true;
+        }
+    }
+
+    public synchronized boolean hasPending(UUID playerUUID) {
+        return pendingPerPlayer.containsKey(playerUUID);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized String getStats() {
+        return "未反映=" + pending.size() +
+                ", 記録=" + appended +
+                ", 反映=" + drained +
+                ", 失敗=" + failures +
+                ", セグメント=" + segments.size();
+    }
+
+    // 停止時は反映が終わるまで待つ。時間内に終わらなかった記録はファイルに残し、次回の起動時に反映する
+    public void shutdown(long timeoutMillis) {
+        Thread thread;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                while (!pending.isEmpty() && drainer != null) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopping = true;
+            thread = drainer;
+            notifyAll();
+        }
+
+        if (thread != null) {
+            try {
+                thread.join(1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                logger.warning("ジャーナルの未反映データ " + pending.size() + " 件は次回起動時に反映します。");
+            }
+            try {
+                if (active != null) {
+                    active.close();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "ジャーナルのクローズに失敗しました: " + e.getMessage(), e);
+            }
+            active = null;
+        }
+    }
+
+    private void drainLoop() {
+        long retryDelay = 0;
+        while (true) {
+            List<Entry> batch;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !stopping) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopping) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+            }
+
+            // 同じプレイヤーの記録は順番に反映する。失敗したプレイヤーの以降の記録は次回に回す
+            Set<UUID> blocked = new HashSet<>();
+            for (Entry entry : batch) {
+                if (isStopping()) {
+                    return;
+                }
+                if (blocked.contains(entry.playerUUID)) {
+                    continue;
+                }
+
+                boolean success;
+                try {
+                    success = writer.write(entry.playerUUID, entry.state);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, entry.playerUUID + " のジャーナルの反映中にエラーが発生しました: " + e.getMessage(), e);
+                    success = false;
+                }
+
+                if (!success) {
+                    blocked.add(entry.playerUUID);
+                    continue;
+                }
+                if (acknowledge(entry)) {
+                    try {
+                        listener.drained(entry.playerUUID);
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "ジャーナル反映後の処理に失敗しました: " + e.getMessage(), e);
+                    }
+                }
+            }
+
+            if (blocked.isEmpty()) {
+                retryDelay = 0;
+                continue;
+            }
+
+            synchronized (this) {
+                failures++;
+                if (retryDelay == 0) {
+                    logger.warning("ジャーナルの " + blocked.size() + " 人分のデータをデータベースに反映できませんでした。ローカルに保持して再試行します。");
+                }
+                retryDelay = retryDelay == 0 ? 1000L : Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+                // 追記による通知では起きず、待機時間が経過するか停止するまで待つ
+                long deadline = System.currentTimeMillis() + retryDelay;
+                try {
+                    long remaining;
+                    while (!stopping && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isStopping() {
+        return stopping;
+    }
+
+    // 反映済みとして記録し、そのプレイヤーの未反映の記録がなくなった場合は true を返す
+    private synchronized boolean acknowledge(Entry entry) {
+        if (active != null) {
+            ByteBuffer body = ByteBuffer.allocate(1 + 8);
+            body.put(TYPE_ACK);
+            body.putLong(entry.sequence);
+            try {
+                writeRecord(body.array());
+                rollIfNeeded();
+            } catch (IOException e) {
+                // 記録できなくても、再生時はセッションの所有者と version の確認で重複した反映は破棄される
+                logger.log(Level.WARNING, "ジャーナルへの反映済みの記録に失敗しました: " + e.getMessage(), e);
+            }
+        }
+
+        pending.remove(entry.sequence);
+        segments.computeIfPresent(entry.segment, (segment, count) -> count - 1);
+        boolean last = pendingPerPlayer.computeIfPresent(entry.playerUUID, (uuid, count) -> count > 1 ? count - 1 : null) == null;
+        drained++;
+        deleteDrainedSegments();
+        notifyAll();
+        return last;
+    }
+
+    private void addPending(Entry entry) {
+        pending.put(entry.sequence, entry);
+        pendingPerPlayer.merge(entry.playerUUID, 1, Integer::sum);
+        segments.merge(entry.segment, 1, Integer::sum);
+    }
+
+    private void writeRecord(byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length);
+        record.putInt((int) crc.getValue());
+        record.put(body);
+        record.flip();
+        while (record.hasRemaining()) {
+            active.write(record);
+        }
+        if (fsync) {
+            active.force(false);
+        }
+    }
+
+    private void rollIfNeeded() throws IOException {
+        if (active.size() < segmentBytes) {
+            return;
+        }
+        active.close();
+        activeSegment++;
+        openActiveSegment();
+    }
+
+    private void openActiveSegment() throws IOException {
+        active = FileChannel.open(segmentFile(activeSegment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segments.putIfAbsent(activeSegment, 0);
+    }
+
+    // 古い順に、全記録が反映済みのセグメントを削除する
+    // 反映済みの記録は必ず対象の記録より後ろにあるため、順番に削除すれば残ったセグメントの記録が失われることはない
+    private void deleteDrainedSegments() {
+        while (!segments.isEmpty()) {
+            Map.Entry<Long, Integer> oldest = segments.firstEntry();
+            if (oldest.getKey() == activeSegment || oldest.getValue() > 0) {
+                return;
+            }
+            File file = segmentFile(oldest.getKey());
+            if (file.exists() && !file.delete()) {
+                logger.warning("ジャーナルのセグメントを削除できませんでした: " + file.getName());
+                return;
+            }
+            segments.remove(oldest.getKey());
+        }
+    }
+
+    private void readSegment(File file, long segment, List<Entry> recovered, Set<Long> acked) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int valid = 0;
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 9 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long sequence = record.getLong();
+            if (type == TYPE_ACK) {
+                acked.add(sequence);
+            } else if (type == TYPE_SAVE) {
+                try {
+                    recovered.add(decodeSave(record, sequence, segment));
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "ジャーナルの記録 #" + sequence + " を読み込めませんでした: " + e.getMessage(), e);
+                }
+            }
+            valid = buffer.position();
+        }
+
+        if (valid < buffer.limit()) {
+            logger.warning("ジャーナル " + file.getName() + " の末尾 " + (buffer.limit() - valid) + " バイトが壊れているため切り捨てます。");
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private static Entry decodeSave(ByteBuffer record, long sequence, long segment) throws IOException {
+        UUID playerUUID = new UUID(record.getLong(), record.getLong());
+        int flags = record.get();
+        ItemStack[] inventory = (flags & FLAG_INVENTORY) != 0 ? ItemStackCodec.decode(readBytes(record)) : null;
+        ItemStack[] enderChest = (flags & FLAG_ENDER_CHEST) != 0 ? ItemStackCodec.decode(readBytes(record)) : null;
+        Double balance = (flags & FLAG_BALANCE) != 0 ? record.getDouble() : null;
+        return new Entry(sequence, segment, playerUUID, new PlayerState(inventory, enderChest, balance));
+    }
+
+    private static byte[] readBytes(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return bytes;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%012d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Entry {
+        private final long sequence;
+        private final long segment;
+        private final UUID playerUUID;
+        private final PlayerState state;
+
+        private Entry(long sequence, long segment, UUID playerUUID, PlayerState state) {
+            this.sequence = sequence;
+            this.segment = segment;
+            this.playerUUID = playerUUID;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package me.petoma21.inventory_share.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// このサーバーが所有しているプレイヤーのセッション
+// グループごとに、最後に読み込み/保存した時点の version を保持する（保存時の比較に使う）
+public class SessionLease {
+
+    private final Map<String, Long> versions;
+
+    public SessionLease(Map<String, Long> versions) {
+        this.versions = new HashMap<>(versions);
+    }
+
+    // 未取得のグループは null
+    public synchronized Long getVersion(String serverGroup) {
+        return versions.get(serverGroup);
+    }
+
+    public synchronized void setVersion(String serverGroup, long version) {
+        versions.put(serverGroup, version);
+    }
+}
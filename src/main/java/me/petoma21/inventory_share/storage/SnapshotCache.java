@@ -0,0 +1,118 @@
+package me.petoma21.inventory_share.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// 最近退出/参加したプレイヤーのデコード済みデータを保持する LRU キャッシュ
+// セッションの version と一致する場合のみ使われるため、他のサーバーが保存した後の古いデータが返ることはない
+// 上限はエンコード後のバイト数（未エンコードの場合はアイテム数からの見積もり）で数える（デコード済みのオブジェクトはこれより大きい）
+public class SnapshotCache {
+
+    // アクセス順の LinkedHashMap（先頭が最も古い）
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long currentBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public SnapshotCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    // version はこの内容を保存/読み込みした時点のセッションの version
+    public void put(UUID playerUUID, String serverGroup, long version, PlayerState state) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        // 保存時のエンコード結果があればその長さを使い、改めてエンコードはしない
+        long size = 64 + state.estimateEncodedSize();
+        PlayerState copy = new PlayerState(
+                state.getInventory() == null ? null : state.getInventory().clone(),
+                state.getEnderChest() == null ? null : state.getEnderChest().clone(),
+                state.getBalance(),
+                state.getInventoryFingerprint(),
+                state.getEnderChestFingerprint(),
+                state.getInventoryDeltaCount(),
+                null
+        );
+
+        synchronized (this) {
+            if (size > maxBytes) {
+                remove(key(playerUUID, serverGroup));
+                return;
+            }
+            remove(key(playerUUID, serverGroup));
+            entries.put(key(playerUUID, serverGroup), new Entry(copy, version, size));
+            currentBytes += size;
+            evict();
+        }
+    }
+
+    // version が一致するデータを返す。一致しない場合は破棄して null を返す
+    public synchronized PlayerState get(UUID playerUUID, String serverGroup, Long version) {
+        String key = key(playerUUID, serverGroup);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (version == null || entry.version != version) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.state;
+    }
+
+    public synchronized String getStats() {
+        return entries.size() + " 件, " + (currentBytes / 1024) + "/" + (maxBytes / 1024) + " KB" +
+                ", ヒット=" + hits + ", ミス=" + misses + ", 追い出し=" + evictions;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.size;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().getValue().size;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static String key(UUID playerUUID, String serverGroup) {
+        return playerUUID + "/" + serverGroup;
+    }
+
+    private static class Entry {
+        private final PlayerState state;
+        private final long version;
+        private final long size;
+
+        private Entry(PlayerState state, long version, long size) {
+            this.state = state;
+            this.version = version;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package me.petoma21.inventory_share.storage;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// データベースの読み書きを行うプラグイン専用のスレッドプール
+// Bukkit の非同期スケジューラ（他のプラグインと共有、上限なし）の代わりに使い、同時実行数と待ち行列を制限する
+// 待ち行列は優先度順（同じ優先度では登録順）で、参加時の読み込みを自動保存より先に実行する
+// プレイヤーを指定したタスクはプレイヤーごとの待ち行列に入り、同じプレイヤーのタスクは登録順に1つずつ実行される
+// 異なるプレイヤーのタスクは並行して実行される
+// 待ち行列の上限は全ての優先度に適用する。上限の3/4を超えると自動保存と新しいログインを受け付けず、
+// 残りは参加時の読み込み・退出時の保存のために空けておく
+public class StorageExecutor {
+
+    public enum Priority {
+        // 参加時の読み込み
+        HIGH,
+        // 退出時の保存、セッションの管理
+        NORMAL,
+        // 自動保存、管理コマンド（待ち行列が上限の3/4を超えている場合は受け付けない）
+        LOW
+    }
+
+    // 一定時間後の登録で待ち行列が一杯だった場合に、登録し直すまでの間隔
+    private static final long RETRY_INTERVAL_MILLIS = 50L;
+
+    private final Logger logger;
+    private final int capacity;
+    // LOW のタスクとログインを受け付ける上限
+    private final int softLimit;
+    // HIGH/NORMAL のタスクが空きを待つ最大時間
+    private final long submitTimeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final boolean virtualThreads;
+
+    // 一定時間後に登録し直すタスク（待機中はスレッドを占有しない）
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicInteger delayed = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // 空きを待っているスレッド（space で待機し、タスクの開始時に通知する）
+    private final Object space = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // 実行中または実行待ちのタスクがあるプレイヤーの待ち行列（mailboxes 自体で同期する）
+    private final Map<UUID, Mailbox> mailboxes = new HashMap<>();
+
+    // 統計
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public StorageExecutor(Logger logger, int threads, int capacity, long submitTimeoutMillis, boolean useVirtualThreads) {
+        this.logger = logger;
+        this.capacity = Math.max(1, capacity);
+        this.softLimit = Math.max(1, this.capacity - this.capacity / 4);
+        this.submitTimeoutMillis = Math.max(0L, submitTimeoutMillis);
+
+        ThreadFactory factory = useVirtualThreads ? virtualThreadFactory() : null;
+        this.virtualThreads = factory != null;
+        if (useVirtualThreads && factory == null) {
+            logger.warning("仮想スレッドは Java 21 以降でのみ使用できます。通常のスレッドを使用します。");
+        }
+        if (factory == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            factory = runnable -> {
+                Thread thread = new Thread(runnable, "AIS-Storage-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), factory);
+
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "AIS-Storage-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // タスクを登録する。待ち行列が一杯の場合、LOW のタスクはすぐに、HIGH/NORMAL のタスクは
+    // submit-timeout だけ空きを待ってから RejectedExecutionException を投げる
+    // メインスレッドからは待機しない tryExecute を使うこと
+    public void execute(Priority priority, Runnable task) {
+        submit(priority, task, true);
+    }
+
+    // 指定プレイヤーのタスクとして登録する。同じプレイヤーの前のタスクが終わってから実行される
+    public void execute(Priority priority, UUID playerUUID, Runnable task) {
+        submit(priority, playerUUID, task, true);
+    }
+
+    // 空きを待たずに登録する。受け付けられなかった場合は false
+    public boolean tryExecute(Priority priority, Runnable task) {
+        try {
+            submit(priority, task, false);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public boolean tryExecute(Priority priority, UUID playerUUID, Runnable task) {
+        try {
+            submit(priority, playerUUID, task, false);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // delayMillis 後に、指定プレイヤーのタスクとして登録する
+    // 他のサーバーを待つ処理（セッションの引き継ぎ等）は、スレッド上で待たずにこれで再試行すること
+    // 待機中は同じプレイヤーの他のタスク（退出時の保存等）が先に実行される
+    // 登録時に待ち行列が一杯の場合は、タイマーのスレッドで待たずに間隔を空けて登録し直す。停止後は実行されない
+    public void schedule(Priority priority, UUID playerUUID, long delayMillis, Runnable task) {
+        delayed.incrementAndGet();
+        try {
+            timer.schedule(() -> {
+                delayed.decrementAndGet();
+                if (!tryExecute(priority, playerUUID, task) && !executor.isShutdown()) {
+                    try {
+                        schedule(priority, playerUUID, RETRY_INTERVAL_MILLIS, task);
+                    } catch (RejectedExecutionException e) {
+                        // 停止処理中
+                    }
+                }
+            }, Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            delayed.decrementAndGet();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // 待ち行列が上限の3/4を超え、新しいプレイヤーを受け入れると参加時の読み込みが大きく遅れる場合は true
+    // （上限に達する前に新しいログインを断り、既に参加しているプレイヤーの読み込み・保存の空きを残す）
+    public boolean isSaturated() {
+        return queued.get() >= softLimit;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public String getStats() {
+        long done = started.get();
+        int players;
+        synchronized (mailboxes) {
+            players = mailboxes.size();
+        }
+        return (virtualThreads ? "仮想スレッド" : "スレッド") + "=" + executor.getMaximumPoolSize() +
+                ", 実行中=" + executor.getActiveCount() +
+                ", 待機=" + queued.get() + "/" + capacity + " (自動保存・ログインの上限 " + softLimit + ")" +
+                ", 空き待ち=" + waiting.get() +
+                ", 対象プレイヤー=" + players +
+                ", 再試行待ち=" + delayed.get() +
+                ", 受付=" + submitted.get() +
+                ", 拒否=" + rejected.get() +
+                ", 平均待ち時間=" + (done > 0 ? totalWaitMillis.get() / done : 0) + "ms" +
+                ", 最大待ち時間=" + maxWaitMillis.get() + "ms";
+    }
+
+    // 登録済みのタスクが終わるまで待ってから停止する
+    public void shutdown(long timeoutMillis) {
+        // 再試行待ちのタスクは破棄する（参加途中のプレイヤーの読み込み等）
+        timer.shutdownNow();
+        delayed.set(0);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("ストレージのスレッドプールの停止がタイムアウトしました。未実行: " + queued.get() + " 件");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Java 21 以降の Thread.ofVirtual().name(...).factory() をリフレクションで取得する（それより前の場合は null）
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            // 実装クラスは公開されていないため、公開インターフェース Thread.Builder のメソッドを使う
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "AIS-Storage-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void submit(Priority priority, Runnable task, boolean wait) {
+        Job job = accept(priority, task, wait);
+        try {
+            dispatch(priority, job);
+        } catch (RejectedExecutionException e) {
+            // 停止後
+            release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void submit(Priority priority, UUID playerUUID, Runnable task, boolean wait) {
+        Job job = accept(priority, task, wait);
+        Mailbox mailbox;
+        synchronized (mailboxes) {
+            mailbox = mailboxes.get(playerUUID);
+            if (mailbox != null) {
+                // 実行中のタスクが終わった後に順番に実行される
+                mailbox.jobs.add(job);
+                return;
+            }
+            mailbox = new Mailbox(playerUUID);
+            mailbox.jobs.add(job);
+            mailboxes.put(playerUUID, mailbox);
+        }
+
+        try {
+            dispatch(priority, mailbox);
+        } catch (RejectedExecutionException e) {
+            // 停止後
+            synchronized (mailboxes) {
+                mailboxes.remove(playerUUID);
+            }
+            release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // 待ち行列の枠を1つ確保する。LOW は softLimit まで、HIGH/NORMAL は capacity まで受け付け、
+    // wait が true の場合は HIGH/NORMAL のみ submit-timeout まで空きを待つ
+    private Job accept(Priority priority, Runnable task, boolean wait) {
+        int limit = priority == Priority.LOW ? softLimit : capacity;
+        if (!reserve(limit) && !(wait && priority != Priority.LOW && awaitSpace(limit))) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("ストレージの待ち行列が一杯です (" + queued.get() + "/" + capacity + ")");
+        }
+        submitted.incrementAndGet();
+        return new Job(priority, task);
+    }
+
+    private boolean reserve(int limit) {
+        while (true) {
+            int current = queued.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean awaitSpace(int limit) {
+        long deadline = System.currentTimeMillis() + submitTimeoutMillis;
+        synchronized (space) {
+            waiting.incrementAndGet();
+            try {
+                while (!reserve(limit)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    space.wait(remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    // 枠を1つ返し、空きを待っているスレッドがあれば通知する
+    private void release() {
+        queued.decrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (space) {
+                space.notifyAll();
+            }
+        }
+    }
+
+    private void dispatch(Priority priority, Runnable runnable) {
+        executor.execute(new PrioritizedTask(priority, sequence.incrementAndGet(), runnable));
+    }
+
+    // 登録されたタスク1件（待ち時間の計測を含む）
+    private class Job implements Runnable {
+        private final Priority priority;
+        private final Runnable task;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private Job(Priority priority, Runnable task) {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            release();
+            started.incrementAndGet();
+            long waited = System.currentTimeMillis() - enqueuedAt;
+            totalWaitMillis.addAndGet(waited);
+            maxWaitMillis.accumulateAndGet(waited, Math::max);
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "ストレージのタスクでエラーが発生しました: " + t.getMessage(), t);
+            }
+        }
+    }
+
+    // プレイヤーごとの待ち行列。1回の実行で先頭のタスクを1件実行し、残っていれば次のタスクの優先度で再登録する
+    // （1人のタスクがスレッドを占有せず、他のプレイヤーや優先度の高いタスクと交互に実行される）
+    private class Mailbox implements Runnable {
+        private final UUID playerUUID;
+        private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+
+        private Mailbox(UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Job job;
+                synchronized (mailboxes) {
+                    job = jobs.poll();
+                }
+                job.run();
+
+                Priority next;
+                synchronized (mailboxes) {
+                    Job head = jobs.peek();
+                    if (head == null) {
+                        mailboxes.remove(playerUUID);
+                        return;
+                    }
+                    next = head.priority;
+                }
+                try {
+                    dispatch(next, this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // 停止処理中は再登録できないため、残りをこのスレッドで続けて実行する
+                }
+            }
+        }
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Priority priority;
+        private final long order;
+        private final Runnable task;
+
+        private PrioritizedTask(Priority priority, long order, Runnable task) {
+            this.priority = priority;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int compare = priority.compareTo(other.priority);
+            return compare != 0 ? compare : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package me.petoma21.inventory_share.storage;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 保存要求を一旦キューに溜め、一定間隔またはバッチサイズに達した時点でまとめて書き込む
+// 同じプレイヤーの未書き込みデータは項目ごとに最新のものだけを保持する
+// 書き込みは Dispatcher（ストレージのスレッドプールの LOW）に登録し、参加時の読み込み等より後に実行される
+public class WriteBehindQueue {
+
+    // 実際の書き込み処理
+    public interface Writer {
+        boolean write(UUID playerUUID, PlayerState state);
+    }
+
+    // まとめて書き込む直前の前処理（並列エンコード）
+    public interface Preparer {
+        void prepare(Collection<PlayerState> states);
+    }
+
+    // 書き込みタスクをプレイヤーのタスクとして登録する。受け付けられなかった場合は false
+    public interface Dispatcher {
+        boolean dispatch(UUID playerUUID, Runnable task);
+    }
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Logger logger;
+    private final Writer writer;
+    private final Preparer preparer;
+    private final Dispatcher dispatcher;
+    private final long flushIntervalMillis;
+    private final int batchSize;
+
+    private final Map<UUID, PlayerState> pending = new ConcurrentHashMap<>();
+
+    // 同じプレイヤーの書き込みが並行して実行され、古いデータで上書きされるのを防ぐ
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    // 書き込みタスクを登録済みで、まだ開始していないプレイヤー（次のフラッシュで重複して登録しない）
+    private final Set<UUID> dispatched = ConcurrentHashMap.newKeySet();
+
+    // 統計
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    // preparer は null でもよい
+    public WriteBehindQueue(Logger logger, Writer writer, Preparer preparer, Dispatcher dispatcher,
+                            long flushIntervalMillis, int batchSize) {
+        this.logger = logger;
+        this.writer = writer;
+        this.preparer = preparer;
+        this.dispatcher = dispatcher;
+        this.flushIntervalMillis = Math.max(50L, flushIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AIS-WriteBehind-Flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 保存要求を登録する。null の項目は以前の未書き込みデータを維持する
+    public void submit(UUID playerUUID, PlayerState state) {
+        if (closed) {
+            // 停止後は直接書き込む
+            writeNow(playerUUID, state);
+            return;
+        }
+
+        submitted.incrementAndGet();
+        pending.merge(playerUUID, state, (older, newer) -> {
+            coalesced.incrementAndGet();
+            return merge(older, newer);
+        });
+
+        if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushSafely();
+            });
+        }
+    }
+
+    // 指定プレイヤーの未書き込みデータに最終データを重ね、呼び出しスレッドで即座に書き込む（退出時用）
+    public boolean flushPlayer(UUID playerUUID, PlayerState finalState) {
+        synchronized (lockFor(playerUUID)) {
+            PlayerState older = pending.remove(playerUUID);
+            PlayerState state = older == null ? finalState
+                    : finalState == null ? older : merge(older, finalState);
+            if (state == null) {
+                return true;
+            }
+            return write(playerUUID, state);
+        }
+    }
+
+    // 未書き込みデータと最終データを統合して target に渡す（ジャーナルへの記録用）
+    // target が失敗した場合は通常の書き込み処理で書き込む
+    public boolean flushPlayer(UUID playerUUID, PlayerState finalState, Writer target) {
+        synchronized (lockFor(playerUUID)) {
+            PlayerState older = pending.remove(playerUUID);
+            PlayerState state = older == null ? finalState
+                    : finalState == null ? older : merge(older, finalState);
+            if (state == null) {
+                return true;
+            }
+            if (target.write(playerUUID, state)) {
+                return true;
+            }
+            return write(playerUUID, state);
+        }
+    }
+
+    // 指定プレイヤーの未書き込みデータを取り出し、最終データを重ねて返す（呼び出し側でまとめて書き込む場合用）
+    // 同じプレイヤーの書き込み中のデータがあれば、その完了を待ってから取り出す
+    public PlayerState takePlayer(UUID playerUUID, PlayerState finalState) {
+        synchronized (lockFor(playerUUID)) {
+            PlayerState older = pending.remove(playerUUID);
+            return older == null ? finalState
+                    : finalState == null ? older : merge(older, finalState);
+        }
+    }
+
+    public boolean flushPlayer(UUID playerUUID) {
+        return flushPlayer(playerUUID, null);
+    }
+
+    // 溜まっている全データの書き込みを登録する
+    // 登録する前に、全員分のエンコードを並列に済ませる
+    // 待ち行列が一杯で受け付けられなかったプレイヤーのデータは、そのまま次回のフラッシュまで残す
+    // 停止後は呼び出しスレッドで全て書き込む（ストレージのスレッドプールは先に停止しているため）
+    public void flushAll() {
+        List<UUID> playerUUIDs = new ArrayList<>();
+        for (UUID playerUUID : pending.keySet()) {
+            if (closed || !dispatched.contains(playerUUID)) {
+                playerUUIDs.add(playerUUID);
+            }
+        }
+        if (preparer != null && !playerUUIDs.isEmpty()) {
+            List<PlayerState> states = new ArrayList<>(playerUUIDs.size());
+            for (UUID playerUUID : playerUUIDs) {
+                PlayerState state = pending.get(playerUUID);
+                if (state != null) {
+                    states.add(state);
+                }
+            }
+            preparer.prepare(states);
+        }
+
+        for (UUID playerUUID : playerUUIDs) {
+            if (closed) {
+                flushPlayer(playerUUID);
+                continue;
+            }
+            if (!dispatched.add(playerUUID)) {
+                continue;
+            }
+            boolean accepted = dispatcher.dispatch(playerUUID, () -> {
+                // 開始後に届いたデータは次回のフラッシュで登録する
+                dispatched.remove(playerUUID);
+                flushPlayer(playerUUID);
+            });
+            if (!accepted) {
+                dispatched.remove(playerUUID);
+                deferred.incrementAndGet();
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    public String getStats() {
+        return "待機=" + pending.size() +
+                ", 受付=" + submitted.get() +
+                ", 統合=" + coalesced.get() +
+                ", 書き込み=" + written.get() +
+                ", 失敗=" + failed.get() +
+                ", 見送り=" + deferred.get();
+    }
+
+    // 停止時は残りのデータを全て書き込んでから終了する
+    public void shutdown(long timeoutMillis) {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flushAll();
+        if (!pending.isEmpty()) {
+            logger.warning("書き込みキューの停止時に書き込めなかったデータがあります。未書き込み: " + pending.size() + " 件");
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flushAll();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "書き込みキューのフラッシュ中にエラーが発生しました: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean write(UUID playerUUID, PlayerState state) {
+        boolean success;
+        try {
+            success = writer.write(playerUUID, state);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, playerUUID + " のデータ書き込み中にエラーが発生しました: " + e.getMessage(), e);
+            success = false;
+        }
+
+        if (success) {
+            written.incrementAndGet();
+            return true;
+        }
+
+        failed.incrementAndGet();
+        if (!closed) {
+            // 失敗したデータは、より新しいデータが来ていなければ次回のフラッシュで再試行する
+            pending.merge(playerUUID, state, (newer, retry) -> merge(retry, newer));
+        }
+        return false;
+    }
+
+    private void writeNow(UUID playerUUID, PlayerState state) {
+        synchronized (lockFor(playerUUID)) {
+            write(playerUUID, state);
+        }
+    }
+
+    private Object lockFor(UUID playerUUID) {
+        return locks[(playerUUID.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    private static PlayerState merge(PlayerState older, PlayerState newer) {
+        ItemStack[] inventory = newer.getInventory() != null ? newer.getInventory() : older.getInventory();
+        ItemStack[] enderChest = newer.getEnderChest() != null ? newer.getEnderChest() : older.getEnderChest();
+        Double balance = newer.getBalance() != null ? newer.getBalance() : older.getBalance();
+        return new PlayerState(inventory, enderChest, balance).reuseEncodings(newer).reuseEncodings(older);
+    }
+}